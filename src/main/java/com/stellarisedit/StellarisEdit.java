@@ -3,10 +3,20 @@ package com.stellarisedit;
 import com.stellarisedit.command.EditCommand;
 import com.stellarisedit.edit.BrushManager;
 import com.stellarisedit.edit.ClipboardManager;
+import com.stellarisedit.edit.DistributionManager;
+import com.stellarisedit.edit.EditExecutor;
 import com.stellarisedit.edit.HistoryManager;
+import com.stellarisedit.edit.PreviewManager;
 import com.stellarisedit.edit.SelectionManager;
+import com.stellarisedit.edit.SnapshotManager;
+import com.stellarisedit.edit.ToolManager;
+import com.stellarisedit.scheduler.BukkitEditScheduler;
+import com.stellarisedit.scheduler.EditScheduler;
+import com.stellarisedit.scheduler.FoliaEditScheduler;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.logging.Level;
+
 /**
  * Main plugin class.  Sets up managers, registers commands and listeners.  The heavy
  * lifting for editing operations is delegated to manager classes to keep the plugin
@@ -15,32 +25,70 @@ import org.bukkit.plugin.java.JavaPlugin;
  */
 public final class StellarisEdit extends JavaPlugin {
 
+    private EditExecutor editExecutor;
+    private ToolManager toolManager;
     private SelectionManager selectionManager;
     private ClipboardManager clipboardManager;
     private BrushManager brushManager;
     private HistoryManager historyManager;
+    private DistributionManager distributionManager;
+    private SnapshotManager snapshotManager;
+    private PreviewManager previewManager;
 
     @Override
     public void onEnable() {
-        // Instantiate our managers
+        // Pick the scheduler matching the server's threading model
+        this.editExecutor = new EditExecutor(createScheduler(), getLogger());
+
+        // Instantiate our managers; tools first so others can register with it
+        this.toolManager = new ToolManager();
         this.selectionManager = new SelectionManager(this);
         this.clipboardManager = new ClipboardManager(this);
         this.brushManager = new BrushManager(this);
         this.historyManager = new HistoryManager(this);
+        this.distributionManager = new DistributionManager(this);
+        this.snapshotManager = new SnapshotManager(this);
+        this.previewManager = new PreviewManager(this);
 
         // Register the primary command executor
         EditCommand editCommand = new EditCommand(this);
         getCommand("se").setExecutor(editCommand);
         getCommand("se").setTabCompleter(editCommand);
 
-        // Register listeners for selection wand and brushes
-        getServer().getPluginManager().registerEvents(this.selectionManager, this);
-        getServer().getPluginManager().registerEvents(this.brushManager, this);
+        // A single listener dispatches clicks to the wand and brushes
+        getServer().getPluginManager().registerEvents(this.toolManager, this);
+        // Keep cached block distributions in sync with manual edits
+        getServer().getPluginManager().registerEvents(this.distributionManager, this);
+        getServer().getPluginManager().registerEvents(this.previewManager, this);
     }
 
     @Override
     public void onDisable() {
-        // Plugin shutdown logic.  At present nothing to clean up explicitly.
+        // Wait (bounded) for queued snapshot writes on their background thread
+        if (this.snapshotManager != null) {
+            this.snapshotManager.shutdown();
+        }
+    }
+
+    private EditScheduler createScheduler() {
+        if (FoliaEditScheduler.isSupported()) {
+            try {
+                EditScheduler scheduler = new FoliaEditScheduler(this);
+                getLogger().info("Region-threaded server detected; edits will run on region schedulers.");
+                return scheduler;
+            } catch (ReflectiveOperationException ex) {
+                getLogger().log(Level.WARNING, "Region-threaded server detected but its schedulers are unavailable; falling back to the main thread.", ex);
+            }
+        }
+        return new BukkitEditScheduler(this);
+    }
+
+    public EditExecutor getEditExecutor() {
+        return editExecutor;
+    }
+
+    public ToolManager getToolManager() {
+        return toolManager;
     }
 
     public SelectionManager getSelectionManager() {
@@ -58,4 +106,16 @@ public final class StellarisEdit extends JavaPlugin {
     public HistoryManager getHistoryManager() {
         return historyManager;
     }
+
+    public DistributionManager getDistributionManager() {
+        return distributionManager;
+    }
+
+    public SnapshotManager getSnapshotManager() {
+        return snapshotManager;
+    }
+
+    public PreviewManager getPreviewManager() {
+        return previewManager;
+    }
 }
@@ -2,9 +2,21 @@ package com.stellarisedit.command;
 
 import com.stellarisedit.StellarisEdit;
 import com.stellarisedit.edit.BrushManager;
+import com.stellarisedit.edit.ChunkSnapshotCache;
+import com.stellarisedit.edit.EditExecutor;
+import com.stellarisedit.edit.EditScript;
+import com.stellarisedit.edit.FloodFill;
+import com.stellarisedit.edit.Generator;
 import com.stellarisedit.edit.Region;
+import com.stellarisedit.edit.RegionCopier;
 import com.stellarisedit.edit.Operation;
+import com.stellarisedit.edit.SurfaceEditor;
+import com.stellarisedit.expression.Expression;
+import com.stellarisedit.scheduler.EditScheduler;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,17 +28,34 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Handles the "/se" command and its subcommands.  Delegates functionality to
  * the appropriate managers defined in the main plugin.
  */
 public class EditCommand implements CommandExecutor, TabCompleter {
+    private static final int TARGET_RANGE = 64;
+    private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d{1,9})([smhd])");
+    private static final Pattern CLOCK_PATTERN = Pattern.compile("(\\d{1,2}):(\\d{2})");
+    private static final Pattern SCRIPT_NAME_PATTERN = Pattern.compile("[a-z0-9_-]{1,32}");
+
     private final StellarisEdit plugin;
 
     public EditCommand(StellarisEdit plugin) {
@@ -63,21 +92,108 @@ public class EditCommand implements CommandExecutor, TabCompleter {
                 }
                 handleReplace(player, args);
                 return true;
+            case "batch":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se batch <step>; <step>; ... or /se batch file <name>");
+                    return true;
+                }
+                handleBatch(player, args);
+                return true;
+            case "generate":
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se generate <blockdata> <expression>");
+                    return true;
+                }
+                handleGenerate(player, args);
+                return true;
+            case "overlay":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se overlay <blockdata>");
+                    return true;
+                }
+                handleOverlay(player, args);
+                return true;
+            case "naturalize":
+                handleNaturalize(player);
+                return true;
+            case "replacetop":
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se replacetop <from> <to>");
+                    return true;
+                }
+                handleReplaceTop(player, args);
+                return true;
+            case "fill":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se fill <blockdata> [limit]");
+                    return true;
+                }
+                handleFill(player, args);
+                return true;
+            case "replacenear":
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se replacenear <from> <to> [limit]");
+                    return true;
+                }
+                handleReplaceNear(player, args);
+                return true;
+            case "stack":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se stack <count> [direction]");
+                    return true;
+                }
+                handleCopyRegion(player, args, false);
+                return true;
+            case "move":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se move <distance> [direction]");
+                    return true;
+                }
+                handleCopyRegion(player, args, true);
+                return true;
+            case "count":
+                if (args.length < 2) {
+                    player.sendMessage(ChatColor.RED + "Usage: /se count <materials>");
+                    return true;
+                }
+                handleCount(player, args);
+                return true;
+            case "distr":
+                handleDistribution(player, args);
+                return true;
+            case "snapshot":
+                handleSnapshot(player, args);
+                return true;
             case "copy":
                 plugin.getClipboardManager().copy(player);
                 return true;
             case "paste":
                 plugin.getClipboardManager().paste(player);
                 return true;
+            case "preview":
+                handlePreview(player, args);
+                return true;
+            case "commit":
+                plugin.getPreviewManager().commit(player);
+                return true;
+            case "discard":
+                plugin.getPreviewManager().discard(player);
+                return true;
             case "undo":
                 plugin.getHistoryManager().undo(player);
                 return true;
             case "redo":
                 plugin.getHistoryManager().redo(player);
                 return true;
+            case "rollback":
+                handleRollback(player, args);
+                return true;
             case "brush":
                 handleBrush(player, args);
                 return true;
+            case "unbind":
+                handleUnbind(player);
+                return true;
             default:
                 sendHelp(player);
                 return true;
@@ -89,10 +205,27 @@ public class EditCommand implements CommandExecutor, TabCompleter {
         player.sendMessage(ChatColor.YELLOW + "/se wand" + ChatColor.WHITE + " - get selection wand");
         player.sendMessage(ChatColor.YELLOW + "/se set <blockdata> [mask=materials]" + ChatColor.WHITE + " - fill selection with block");
         player.sendMessage(ChatColor.YELLOW + "/se replace <from> <to>" + ChatColor.WHITE + " - replace blocks in selection");
+        player.sendMessage(ChatColor.YELLOW + "/se batch <step>; <step>; ... | file <name>" + ChatColor.WHITE + " - run set/replace/mask steps in one pass");
+        player.sendMessage(ChatColor.YELLOW + "/se generate <blockdata> <expression>" + ChatColor.WHITE + " - set blocks where the expression of x, y, z is true");
+        player.sendMessage(ChatColor.GRAY + "  noise(x,y,z) and simplex(x,y,z) range from -1 to 1 with features about 16 blocks across, e.g. noise(x,y,z)>0.2");
+        player.sendMessage(ChatColor.YELLOW + "/se overlay <blockdata>" + ChatColor.WHITE + " - place a layer on top of the selection's surface");
+        player.sendMessage(ChatColor.YELLOW + "/se naturalize" + ChatColor.WHITE + " - turn the surface into grass over dirt");
+        player.sendMessage(ChatColor.YELLOW + "/se replacetop <from> <to>" + ChatColor.WHITE + " - replace only the top block of each column");
+        player.sendMessage(ChatColor.YELLOW + "/se fill <blockdata> [limit]" + ChatColor.WHITE + " - flood fill the air around you");
+        player.sendMessage(ChatColor.YELLOW + "/se replacenear <from> <to> [limit]" + ChatColor.WHITE + " - replace the connected blocks you are looking at");
+        player.sendMessage(ChatColor.YELLOW + "/se stack <count> [direction]" + ChatColor.WHITE + " - repeat the selection next to itself");
+        player.sendMessage(ChatColor.YELLOW + "/se move <distance> [direction]" + ChatColor.WHITE + " - move the selection, leaving air behind");
+        player.sendMessage(ChatColor.YELLOW + "/se count <materials>" + ChatColor.WHITE + " - count matching blocks in selection");
+        player.sendMessage(ChatColor.YELLOW + "/se distr [page] [-s]" + ChatColor.WHITE + " - show block distribution of selection");
+        player.sendMessage(ChatColor.YELLOW + "/se snapshot <create|restore|delete> <name> / list" + ChatColor.WHITE + " - manage selection snapshots");
         player.sendMessage(ChatColor.YELLOW + "/se copy" + ChatColor.WHITE + " - copy selection to clipboard");
         player.sendMessage(ChatColor.YELLOW + "/se paste" + ChatColor.WHITE + " - paste clipboard at your location");
+        player.sendMessage(ChatColor.YELLOW + "/se preview [on|off]" + ChatColor.WHITE + " - show edits only to you until committed");
+        player.sendMessage(ChatColor.YELLOW + "/se commit / discard" + ChatColor.WHITE + " - apply or drop the pending preview");
         player.sendMessage(ChatColor.YELLOW + "/se undo / redo" + ChatColor.WHITE + " - undo/redo last operation");
-        player.sendMessage(ChatColor.YELLOW + "/se brush sphere <radius> <blockdata> [mask=materials]" + ChatColor.WHITE + " - create sphere brush");
+        player.sendMessage(ChatColor.YELLOW + "/se rollback [player|*] [since] [radius]" + ChatColor.WHITE + " - revert recent edits around you (since: 30m, 2h, 14:00)");
+        player.sendMessage(ChatColor.YELLOW + "/se brush sphere <radius> <blockdata> [mask=materials]" + ChatColor.WHITE + " - bind a sphere brush to the held item");
+        player.sendMessage(ChatColor.YELLOW + "/se unbind" + ChatColor.WHITE + " - remove the tool bound to the held item");
     }
 
     private void handleSet(Player player, String[] args) {
@@ -115,27 +248,213 @@ public class EditCommand implements CommandExecutor, TabCompleter {
             player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
             return;
         }
-        Map<Location, BlockData> before = new HashMap<>();
-        Map<Location, BlockData> after = new HashMap<>();
-        for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
-            for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
-                for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
-                    Location loc = new Location(player.getWorld(), x, y, z);
-                    if (mask != null && !mask.contains(loc.getBlock().getType())) {
-                        continue;
-                    }
-                    before.put(loc, loc.getBlock().getBlockData().clone());
-                    after.put(loc, data);
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> edit.forEachBlock(region, (x, y, z, current) -> {
+            if (mask == null || mask.contains(current.getMaterial())) {
+                edit.set(x, y, z, current, data);
+            }
+        }), op -> applyAndRecord(player, op, ChatColor.GREEN + "Set " + op.getBlockCount() + " blocks."));
+    }
+
+    private void handleReplace(Player player, String[] args) {
+        String fromString = args[1];
+        String toString = args[2];
+        BlockData from;
+        BlockData to;
+        try {
+            from = player.getServer().createBlockData(fromString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid from block: " + fromString);
+            return;
+        }
+        try {
+            to = player.getServer().createBlockData(toString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid to block: " + toString);
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> edit.forEachBlock(region, (x, y, z, current) -> {
+            if (current.matches(from)) {
+                edit.set(x, y, z, current, to);
+            }
+        }), op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "No blocks matched " + fromString + ".");
+                return;
+            }
+            applyAndRecord(player, op, ChatColor.GREEN + "Replaced " + op.getBlockCount() + " blocks.");
+        });
+    }
+
+    private void handleBatch(Player player, String[] args) {
+        // /se batch <step>; <step>; ... | /se batch file <name>
+        String source;
+        if (args[1].equalsIgnoreCase("file") && args.length == 3) {
+            String name = args[2].toLowerCase(Locale.ROOT);
+            if (!SCRIPT_NAME_PATTERN.matcher(name).matches()) {
+                player.sendMessage(ChatColor.RED + "Invalid script name: " + args[2]);
+                return;
+            }
+            File file = new File(new File(plugin.getDataFolder(), "scripts"), name + ".se");
+            try {
+                source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException ex) {
+                player.sendMessage(ChatColor.RED + "No script named " + name + " in the scripts folder.");
+                return;
+            } catch (IOException ex) {
+                player.sendMessage(ChatColor.RED + "Failed to read script " + name + ": " + ex.getMessage());
+                return;
+            }
+        } else {
+            source = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        }
+        EditScript script;
+        try {
+            script = EditScript.compile(source, player.getServer());
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + ex.getMessage());
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> edit.forEachBlock(region, (x, y, z, current) -> {
+            BlockData result = script.apply(current);
+            if (!result.equals(current)) {
+                edit.set(x, y, z, current, result);
+            }
+        }), op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.YELLOW + "The batch did not change any blocks.");
+                return;
+            }
+            applyAndRecord(player, op, ChatColor.GREEN + "Batch of "
+                    + script.getStepCount() + " steps changed " + op.getBlockCount() + " blocks.");
+        });
+    }
+
+    private void handleGenerate(Player player, String[] args) {
+        // /se generate <blockdata> <expression...>
+        String blockString = args[1];
+        BlockData data;
+        try {
+            data = player.getServer().createBlockData(blockString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid block data: " + blockString);
+            return;
+        }
+        Expression expression;
+        try {
+            expression = Expression.compile(String.join(" ", Arrays.copyOfRange(args, 2, args.length)));
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + ex.getMessage());
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        World world = player.getWorld();
+        int minY = Math.max(region.getMinY(), world.getMinHeight());
+        int maxY = Math.min(region.getMaxY(), world.getMaxHeight() - 1);
+        if (minY > maxY) {
+            player.sendMessage(ChatColor.RED + "Your selection is outside the world height.");
+            return;
+        }
+        long volume = (long) (region.getMaxX() - region.getMinX() + 1) * (maxY - minY + 1)
+                * (region.getMaxZ() - region.getMinZ() + 1);
+        long maxVolume = plugin.getConfig().getLong("generate.max-volume", 100000000L);
+        if (volume > maxVolume) {
+            player.sendMessage(ChatColor.RED + "Selection contains " + volume + " blocks; the limit is " + maxVolume + ".");
+            return;
+        }
+        long maxBlocks = plugin.getConfig().getLong("generate.max-blocks", 2000000L);
+        Generator generator = new Generator(region, minY, maxY, expression, maxBlocks);
+        EditScheduler scheduler = plugin.getEditExecutor().getScheduler();
+        player.sendMessage(ChatColor.AQUA + "Evaluating " + volume + " blocks...");
+        scheduler.runAsync(() -> {
+            boolean complete = generator.run();
+            scheduler.runGlobal(() -> {
+                if (!complete) {
+                    player.sendMessage(ChatColor.RED + "Expression matches more than " + maxBlocks + " blocks. Nothing was changed.");
+                    return;
+                }
+                if (generator.getCount() == 0) {
+                    player.sendMessage(ChatColor.YELLOW + "The expression is not true anywhere in your selection.");
+                    return;
                 }
+                Map<Long, long[]> hits = generator.getHits();
+                plugin.getEditExecutor().buildOperation(world, hits.keySet(), edit -> {
+                    for (long packed : hits.get(edit.getChunkKey())) {
+                        int x = FloodFill.unpackX(packed);
+                        int y = FloodFill.unpackY(packed);
+                        int z = FloodFill.unpackZ(packed);
+                        BlockData current = edit.getBlockData(x, y, z);
+                        if (current != null && !current.equals(data)) {
+                            edit.set(x, y, z, current, data);
+                        }
+                    }
+                }, op -> {
+                    if (op.isEmpty()) {
+                        player.sendMessage(ChatColor.YELLOW + "The generated shape is already in place.");
+                        return;
+                    }
+                    applyAndRecord(player, op, ChatColor.GREEN + "Generated " + op.getBlockCount() + " blocks.");
+                });
+            });
+        });
+    }
+
+    private void handleOverlay(Player player, String[] args) {
+        String blockString = args[1];
+        BlockData data;
+        try {
+            data = player.getServer().createBlockData(blockString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid block data: " + blockString);
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        SurfaceEditor surface = new SurfaceEditor(region);
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> surface.overlay(edit, data), op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "No surface to overlay in your selection.");
+                return;
             }
+            applyAndRecord(player, op, ChatColor.GREEN + "Overlaid " + op.getBlockCount() + " blocks.");
+        });
+    }
+
+    private void handleNaturalize(Player player) {
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
         }
-        Operation op = new Operation(player.getWorld(), before, after);
-        op.apply();
-        plugin.getHistoryManager().recordOperation(player, op);
-        player.sendMessage(ChatColor.GREEN + "Set " + after.size() + " blocks.");
+        BlockData grass = player.getServer().createBlockData(Material.GRASS_BLOCK);
+        BlockData dirt = player.getServer().createBlockData(Material.DIRT);
+        SurfaceEditor surface = new SurfaceEditor(region);
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> surface.naturalize(edit, grass, dirt), op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.YELLOW + "Your selection is already natural.");
+                return;
+            }
+            applyAndRecord(player, op, ChatColor.GREEN + "Naturalized " + op.getBlockCount() + " blocks.");
+        });
     }
 
-    private void handleReplace(Player player, String[] args) {
+    private void handleReplaceTop(Player player, String[] args) {
         String fromString = args[1];
         String toString = args[2];
         BlockData from;
@@ -157,28 +476,405 @@ public class EditCommand implements CommandExecutor, TabCompleter {
             player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
             return;
         }
+        SurfaceEditor surface = new SurfaceEditor(region);
+        plugin.getEditExecutor().buildOperation(player.getWorld(), region, edit -> surface.replaceTop(edit, from, to), op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "No surface blocks matched " + fromString + ".");
+                return;
+            }
+            applyAndRecord(player, op, ChatColor.GREEN + "Replaced " + op.getBlockCount() + " surface blocks.");
+        });
+    }
+
+    private void handleFill(Player player, String[] args) {
+        // args[1] blockdata, optional limit after
+        String blockString = args[1];
+        BlockData data;
+        try {
+            data = player.getServer().createBlockData(blockString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid block data: " + blockString);
+            return;
+        }
+        Integer limit = parseFloodLimit(player, args, 2);
+        if (limit == null) {
+            return;
+        }
+        Block start = player.getLocation().getBlock();
+        if (!start.getType().isAir()) {
+            player.sendMessage(ChatColor.RED + "You must be standing in air to fill.");
+            return;
+        }
+        applyFloodFill(player, start, current -> current.getMaterial().isAir(), data, limit, "Filled");
+    }
+
+    private void handleReplaceNear(Player player, String[] args) {
+        String fromString = args[1];
+        String toString = args[2];
+        BlockData from;
+        BlockData to;
+        try {
+            from = player.getServer().createBlockData(fromString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid from block: " + fromString);
+            return;
+        }
+        try {
+            to = player.getServer().createBlockData(toString);
+        } catch (IllegalArgumentException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid to block: " + toString);
+            return;
+        }
+        Integer limit = parseFloodLimit(player, args, 3);
+        if (limit == null) {
+            return;
+        }
+        Block start = player.getTargetBlockExact(TARGET_RANGE);
+        if (start == null || !start.getBlockData().matches(from)) {
+            player.sendMessage(ChatColor.RED + "You must be looking at a " + fromString + " block.");
+            return;
+        }
+        applyFloodFill(player, start, current -> current.matches(from), to, limit, "Replaced");
+    }
+
+    /**
+     * Parses the optional flood fill block limit at the given argument index and
+     * clamps it to the configured maximum.  Returns null if the argument is invalid.
+     */
+    private Integer parseFloodLimit(Player player, String[] args, int index) {
+        int max = plugin.getConfig().getInt("flood-fill.max-blocks", 500000);
+        if (args.length <= index) {
+            return max;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(args[index]);
+        } catch (NumberFormatException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid limit: " + args[index]);
+            return null;
+        }
+        if (limit < 1) {
+            player.sendMessage(ChatColor.RED + "Limit must be at least 1.");
+            return null;
+        }
+        return Math.min(limit, max);
+    }
+
+    /**
+     * Flood fills the connected blocks matching the predicate from the start block
+     * and replaces them with the given block data as a single operation.  Nothing
+     * is changed if the fill runs into the block or chunk limit.
+     */
+    private void applyFloodFill(Player player, Block start, Predicate<BlockData> matcher, BlockData data, int limit, String verb) {
+        World world = player.getWorld();
+        int maxChunks = plugin.getConfig().getInt("flood-fill.max-chunks", 256);
+        ChunkSnapshotCache reader = new ChunkSnapshotCache(world, maxChunks, plugin.getEditExecutor().getScheduler());
+        FloodFill fill = new FloodFill(reader, matcher, limit);
+        FloodFill.Result result = fill.run(start.getX(), start.getY(), start.getZ());
+        if (result == FloodFill.Result.BLOCK_LIMIT) {
+            player.sendMessage(ChatColor.RED + "Area exceeds the limit of " + limit + " blocks. Nothing was changed.");
+            return;
+        }
+        if (result == FloodFill.Result.CHUNK_LIMIT) {
+            player.sendMessage(ChatColor.RED + "Area spans more than " + maxChunks + " chunks. Nothing was changed.");
+            return;
+        }
+        if (result == FloodFill.Result.NOT_OWNED) {
+            player.sendMessage(ChatColor.RED + "Area reaches into a part of the world handled by another region. Nothing was changed.");
+            return;
+        }
+        ChunkSnapshotCache cache = fill.getCache();
         Map<Location, BlockData> before = new HashMap<>();
         Map<Location, BlockData> after = new HashMap<>();
-        for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
-            for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
-                for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
-                    Location loc = new Location(player.getWorld(), x, y, z);
-                    BlockData current = loc.getBlock().getBlockData();
-                    if (current.matches(from)) {
-                        before.put(loc, current.clone());
-                        after.put(loc, to);
+        for (long packed : fill.getPositions()) {
+            int x = FloodFill.unpackX(packed);
+            int y = FloodFill.unpackY(packed);
+            int z = FloodFill.unpackZ(packed);
+            Location loc = new Location(world, x, y, z);
+            before.put(loc, cache.getBlockData(x, y, z));
+            after.put(loc, data);
+        }
+        applyAndRecord(player, new Operation(world, before, after), ChatColor.GREEN + verb + " " + after.size() + " blocks.");
+    }
+
+    private void handleCopyRegion(Player player, String[] args, boolean move) {
+        // /se stack <count> [direction] | /se move <distance> [direction]
+        int amount;
+        try {
+            amount = Integer.parseInt(args[1]);
+        } catch (NumberFormatException ex) {
+            player.sendMessage(ChatColor.RED + "Invalid " + (move ? "distance" : "count") + ": " + args[1]);
+            return;
+        }
+        if (amount < 1) {
+            player.sendMessage(ChatColor.RED + (move ? "Distance" : "Count") + " must be at least 1.");
+            return;
+        }
+        BlockFace direction = args.length >= 3 ? parseDirection(player, args[2]) : facing(player);
+        if (direction == null) {
+            player.sendMessage(ChatColor.RED + "Invalid direction: " + args[2]);
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        RegionCopier copier;
+        if (move) {
+            copier = new RegionCopier(player.getWorld(), region, direction, amount, 1, true);
+        } else {
+            // Each copy sits directly against the previous one
+            int size = direction.getModX() != 0 ? region.getMaxX() - region.getMinX() + 1
+                    : direction.getModY() != 0 ? region.getMaxY() - region.getMinY() + 1
+                    : region.getMaxZ() - region.getMinZ() + 1;
+            copier = new RegionCopier(player.getWorld(), region, direction, size, amount, false);
+        }
+        if (copier.getVolume() == 0) {
+            player.sendMessage(ChatColor.RED + "Your selection is outside the world height.");
+            return;
+        }
+        long maxBlocks = plugin.getConfig().getLong("stack.max-blocks", 2000000L);
+        if (copier.getWriteVolume() > maxBlocks) {
+            player.sendMessage(ChatColor.RED + "This would write " + copier.getWriteVolume() + " blocks; the limit is " + maxBlocks + ".");
+            return;
+        }
+        World world = player.getWorld();
+        EditExecutor executor = plugin.getEditExecutor();
+        executor.readChunks(world, copier.getSourceChunkKeys(), copier::capture, () -> {
+            if (!copier.isCaptured()) {
+                player.sendMessage(ChatColor.RED + "Part of your selection is in an ungenerated chunk.");
+                return;
+            }
+            String done = move
+                    ? ChatColor.GREEN + "Moved the selection " + amount + " blocks " + direction.name().toLowerCase(Locale.ROOT) + "."
+                    : ChatColor.GREEN + "Stacked the selection " + amount + " times " + direction.name().toLowerCase(Locale.ROOT) + ".";
+            if (plugin.getPreviewManager().isEnabled(player)) {
+                executor.buildOperation(world, copier.getChunkKeys(), copier::build, op -> {
+                    if (op.isEmpty()) {
+                        player.sendMessage(ChatColor.YELLOW + "No blocks were changed.");
+                        return;
                     }
+                    applyAndRecord(player, op, done + " (" + op.getBlockCount() + " blocks changed)");
+                });
+                return;
+            }
+            // Each copy is written as its original state is read, with no second pass
+            executor.buildAndApply(world, copier.getChunkKeys(), copier::build, op -> {
+                if (op.isEmpty()) {
+                    player.sendMessage(ChatColor.YELLOW + "No blocks were changed.");
+                    return;
                 }
+                plugin.getHistoryManager().recordOperation(player, op);
+                player.sendMessage(done + " (" + op.getBlockCount() + " blocks changed)");
+            });
+        });
+    }
+
+    /**
+     * Parses a direction name or its first letter, or "me" for the direction the
+     * player is facing.  Returns null if the name is not a direction.
+     */
+    private BlockFace parseDirection(Player player, String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "me":
+                return facing(player);
+            case "n":
+            case "north":
+                return BlockFace.NORTH;
+            case "s":
+            case "south":
+                return BlockFace.SOUTH;
+            case "e":
+            case "east":
+                return BlockFace.EAST;
+            case "w":
+            case "west":
+                return BlockFace.WEST;
+            case "u":
+            case "up":
+                return BlockFace.UP;
+            case "d":
+            case "down":
+                return BlockFace.DOWN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the direction the player is looking in, up or down when looking
+     * steeply, otherwise the nearest horizontal direction.
+     */
+    private static BlockFace facing(Player player) {
+        float pitch = player.getLocation().getPitch();
+        if (pitch <= -60) {
+            return BlockFace.UP;
+        }
+        if (pitch >= 60) {
+            return BlockFace.DOWN;
+        }
+        return player.getFacing();
+    }
+
+    /**
+     * Applies the operation through the edit executor, then records it in the
+     * player's history and sends the message.  In preview mode the operation is
+     * only shown to the player and the message is sent once it is committed.
+     */
+    private void applyAndRecord(Player player, Operation op, String message) {
+        if (plugin.getPreviewManager().isEnabled(player)) {
+            plugin.getPreviewManager().show(player, op, message);
+            return;
+        }
+        plugin.getEditExecutor().apply(op, () -> {
+            plugin.getHistoryManager().recordOperation(player, op);
+            player.sendMessage(message);
+        });
+    }
+
+    private void handleCount(Player player, String[] args) {
+        Set<Material> mask = BrushManager.parseMask(args[1]);
+        if (mask == null) {
+            player.sendMessage(ChatColor.RED + "Invalid materials: " + args[1]);
+            return;
+        }
+        plugin.getDistributionManager().count(player, mask);
+    }
+
+    private void handleDistribution(Player player, String[] args) {
+        // /se distr [page] [-s]
+        int page = 1;
+        boolean states = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("-s")) {
+                states = true;
+                continue;
+            }
+            try {
+                page = Integer.parseInt(args[i]);
+            } catch (NumberFormatException ex) {
+                player.sendMessage(ChatColor.RED + "Invalid page: " + args[i]);
+                return;
             }
         }
-        if (after.isEmpty()) {
-            player.sendMessage(ChatColor.RED + "No blocks matched " + fromString + ".");
+        plugin.getDistributionManager().distribution(player, page, states);
+    }
+
+    private void handleSnapshot(Player player, String[] args) {
+        // /se snapshot <create|restore|delete> <name> | /se snapshot list
+        String action = args.length >= 2 ? args[1].toLowerCase(Locale.ROOT) : "";
+        if (action.equals("list")) {
+            plugin.getSnapshotManager().list(player);
+            return;
+        }
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /se snapshot <create|restore|delete> <name> or /se snapshot list");
             return;
         }
-        Operation op = new Operation(player.getWorld(), before, after);
-        op.apply();
-        plugin.getHistoryManager().recordOperation(player, op);
-        player.sendMessage(ChatColor.GREEN + "Replaced " + after.size() + " blocks.");
+        switch (action) {
+            case "create":
+                plugin.getSnapshotManager().create(player, args[2]);
+                break;
+            case "restore":
+                plugin.getSnapshotManager().restore(player, args[2]);
+                break;
+            case "delete":
+                plugin.getSnapshotManager().delete(player, args[2]);
+                break;
+            default:
+                player.sendMessage(ChatColor.RED + "Usage: /se snapshot <create|restore|delete> <name> or /se snapshot list");
+                break;
+        }
+    }
+
+    private void handlePreview(Player player, String[] args) {
+        // /se preview [on|off], toggles without an argument
+        boolean enable = !plugin.getPreviewManager().isEnabled(player);
+        if (args.length >= 2) {
+            if (args[1].equalsIgnoreCase("on")) {
+                enable = true;
+            } else if (args[1].equalsIgnoreCase("off")) {
+                enable = false;
+            } else {
+                player.sendMessage(ChatColor.RED + "Usage: /se preview [on|off]");
+                return;
+            }
+        }
+        plugin.getPreviewManager().setEnabled(player, enable);
+    }
+
+    private void handleRollback(Player player, String[] args) {
+        // /se rollback [player|*] [since] [radius], arguments in any order
+        if (!player.hasPermission("stellarisedit.rollback")) {
+            player.sendMessage(ChatColor.RED + "You do not have permission to roll back edits.");
+            return;
+        }
+        int maxRadius = plugin.getConfig().getInt("rollback.max-radius", 256);
+        String target = null;
+        long since = 0L;
+        int radius = plugin.getConfig().getInt("rollback.default-radius", 16);
+        for (int i = 1; i < args.length; i++) {
+            Long time = parseSince(args[i]);
+            if (time != null) {
+                since = time;
+                continue;
+            }
+            try {
+                radius = Integer.parseInt(args[i]);
+            } catch (NumberFormatException ex) {
+                target = args[i].equals("*") ? null : args[i];
+                continue;
+            }
+            if (radius < 0 || radius > maxRadius) {
+                player.sendMessage(ChatColor.RED + "Radius must be between 0 and " + maxRadius + ".");
+                return;
+            }
+        }
+        plugin.getHistoryManager().rollback(player, target, since, radius);
+    }
+
+    /**
+     * Parses a rollback start time, either a duration ago ("90s", "30m", "2h",
+     * "1d") or a clock time ("14:00", the most recent such time).  Returns the
+     * time in epoch milliseconds, or null if the argument is not a time.
+     */
+    private static Long parseSince(String arg) {
+        Matcher duration = DURATION_PATTERN.matcher(arg.toLowerCase(Locale.ROOT));
+        if (duration.matches()) {
+            long amount = Long.parseLong(duration.group(1));
+            TimeUnit unit;
+            switch (duration.group(2)) {
+                case "s":
+                    unit = TimeUnit.SECONDS;
+                    break;
+                case "m":
+                    unit = TimeUnit.MINUTES;
+                    break;
+                case "h":
+                    unit = TimeUnit.HOURS;
+                    break;
+                default:
+                    unit = TimeUnit.DAYS;
+                    break;
+            }
+            return System.currentTimeMillis() - unit.toMillis(amount);
+        }
+        Matcher clock = CLOCK_PATTERN.matcher(arg);
+        if (clock.matches()) {
+            int hour = Integer.parseInt(clock.group(1));
+            int minute = Integer.parseInt(clock.group(2));
+            if (hour > 23 || minute > 59) {
+                return null;
+            }
+            ZonedDateTime now = ZonedDateTime.now();
+            ZonedDateTime start = now.with(LocalTime.of(hour, minute));
+            if (start.isAfter(now)) {
+                start = start.minusDays(1);
+            }
+            return start.toInstant().toEpochMilli();
+        }
+        return null;
     }
 
     private void handleBrush(Player player, String[] args) {
@@ -210,6 +906,16 @@ public class EditCommand implements CommandExecutor, TabCompleter {
         plugin.getBrushManager().setBrush(player, radius, data, mask);
     }
 
+    private void handleUnbind(Player player) {
+        ItemStack held = player.getInventory().getItemInMainHand();
+        if (held == null || held.getType() == Material.AIR || !plugin.getToolManager().unbind(player, held)) {
+            player.sendMessage(ChatColor.RED + "The item in your hand is not a tool.");
+            return;
+        }
+        player.getInventory().setItemInMainHand(held);
+        player.sendMessage(ChatColor.YELLOW + "Tool unbound.");
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (!(sender instanceof Player)) {
@@ -218,12 +924,26 @@ public class EditCommand implements CommandExecutor, TabCompleter {
         List<String> completions = new ArrayList<>();
         if (args.length == 1) {
             String prefix = args[0].toLowerCase(Locale.ROOT);
-            List<String> options = Arrays.asList("wand", "set", "replace", "copy", "paste", "undo", "redo", "brush");
+            List<String> options = Arrays.asList("wand", "set", "replace", "batch", "generate", "overlay", "naturalize", "replacetop", "fill", "replacenear", "stack", "move", "count", "distr", "snapshot", "copy", "paste", "preview", "commit", "discard", "undo", "redo", "rollback", "brush", "unbind");
             for (String opt : options) {
                 if (opt.startsWith(prefix)) completions.add(opt);
             }
             return completions;
         }
+        if (args.length == 2 && args[0].equalsIgnoreCase("snapshot")) {
+            String prefix = args[1].toLowerCase(Locale.ROOT);
+            for (String opt : Arrays.asList("create", "restore", "delete", "list")) {
+                if (opt.startsWith(prefix)) completions.add(opt);
+            }
+            return completions;
+        }
+        if (args.length == 3 && (args[0].equalsIgnoreCase("stack") || args[0].equalsIgnoreCase("move"))) {
+            String prefix = args[2].toLowerCase(Locale.ROOT);
+            for (String opt : Arrays.asList("me", "north", "south", "east", "west", "up", "down")) {
+                if (opt.startsWith(prefix)) completions.add(opt);
+            }
+            return completions;
+        }
         if (args.length >= 2 && args[0].equalsIgnoreCase("brush")) {
             if (args.length == 2) {
                 if ("sphere".startsWith(args[1].toLowerCase(Locale.ROOT))) {
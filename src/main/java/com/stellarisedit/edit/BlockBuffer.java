@@ -0,0 +1,124 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.block.data.BlockData;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A compact cuboid of block data.  Each distinct block state is stored once in a
+ * palette and every position holds a small palette index, so a buffer costs a
+ * couple of bytes per block instead of a map entry with a boxed key.  Positions
+ * are relative to the buffer's minimum corner and laid out Y, then Z, then X.
+ */
+public class BlockBuffer {
+    private static final int FORMAT_VERSION = 1;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final List<BlockData> palette = new ArrayList<>();
+    private final Map<BlockData, Integer> paletteIndex = new HashMap<>();
+    private final short[] blocks;
+
+    public BlockBuffer(int sizeX, int sizeY, int sizeZ) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.blocks = new short[sizeX * sizeY * sizeZ];
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    public int getVolume() {
+        return blocks.length;
+    }
+
+    public void set(int x, int y, int z, BlockData data) {
+        Integer index = paletteIndex.get(data);
+        if (index == null) {
+            if (palette.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Block buffer palette is full");
+            }
+            index = palette.size();
+            palette.add(data);
+            paletteIndex.put(data, index);
+        }
+        blocks[index(x, y, z)] = index.shortValue();
+    }
+
+    public BlockData get(int x, int y, int z) {
+        return palette.get(blocks[index(x, y, z)]);
+    }
+
+    private int index(int x, int y, int z) {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    /**
+     * Serialises the buffer.  The encoding is deterministic for a given content,
+     * so equal buffers always produce equal bytes.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeShort(sizeX);
+        out.writeShort(sizeY);
+        out.writeShort(sizeZ);
+        out.writeShort(palette.size());
+        for (BlockData data : palette) {
+            out.writeUTF(data.getAsString());
+        }
+        boolean wide = palette.size() > 256;
+        for (short index : blocks) {
+            if (wide) {
+                out.writeShort(index);
+            } else {
+                out.writeByte(index);
+            }
+        }
+    }
+
+    /**
+     * Reads a buffer written by {@link #write(DataOutputStream)}.  Block states are
+     * parsed with the given parser, which normally wraps
+     * {@link org.bukkit.Server#createBlockData(String)}.
+     */
+    public static BlockBuffer read(DataInputStream in, Function<String, BlockData> parser) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported block buffer version " + version);
+        }
+        BlockBuffer buffer = new BlockBuffer(in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort());
+        int paletteSize = in.readUnsignedShort();
+        for (int i = 0; i < paletteSize; i++) {
+            BlockData data = parser.apply(in.readUTF());
+            buffer.paletteIndex.putIfAbsent(data, i);
+            buffer.palette.add(data);
+        }
+        boolean wide = paletteSize > 256;
+        for (int i = 0; i < buffer.blocks.length; i++) {
+            int index = wide ? in.readUnsignedShort() : in.readUnsignedByte();
+            if (index >= paletteSize) {
+                throw new IOException("Corrupt block buffer: palette index " + index + " out of range");
+            }
+            buffer.blocks[i] = (short) index;
+        }
+        return buffer;
+    }
+}
@@ -3,39 +3,31 @@ package com.stellarisedit.edit;
 import com.stellarisedit.StellarisEdit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
-import org.bukkit.NamespacedKey;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
-import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.util.Vector;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Set;
-import java.util.UUID;
 
-import org.bukkit.Location;
 
 /**
  * Manages sphere brushes.  Players can create a brush with a given radius
- * and block data (and optional mask).  They are given a blaze rod labelled
- * "Stellaris Brush" which will paint spheres when right-clicked against a block.
+ * and block data (and optional mask).  The brush is bound through the
+ * {@link ToolManager} to the item in the player's hand, or to a new blaze rod
+ * if their hand is empty, and paints spheres when right-clicked against a
+ * block.  Different items can carry different brushes.
  */
-public class BrushManager implements Listener {
+public class BrushManager {
     private static final Material BRUSH_MATERIAL = Material.BLAZE_ROD;
     private static final String BRUSH_NAME = ChatColor.LIGHT_PURPLE + "Stellaris Brush";
-    private static final NamespacedKey BRUSH_KEY = new NamespacedKey("stellarisedit", "brush");
 
     private final StellarisEdit plugin;
-    private final Map<UUID, Brush> brushMap = new HashMap<>();
 
     public BrushManager(StellarisEdit plugin) {
         this.plugin = plugin;
@@ -43,7 +35,8 @@ public class BrushManager implements Listener {
 
     /**
      * Creates a new brush for the player with the given radius, block data and
-     * optional mask.  The player receives a blaze rod brush item.
+     * optional mask, and binds it to the item in their main hand.  If the hand is
+     * empty the player receives a new blaze rod brush item.
      */
     public void setBrush(Player player, int radius, BlockData blockData, Set<Material> mask) {
         if (radius < 1) {
@@ -51,74 +44,57 @@ public class BrushManager implements Listener {
             return;
         }
         Brush brush = new Brush(radius, blockData, mask);
-        brushMap.put(player.getUniqueId(), brush);
-        // Give brush item
-        ItemStack item = new ItemStack(BRUSH_MATERIAL);
-        ItemMeta meta = item.getItemMeta();
-        if (meta != null) {
-            meta.setDisplayName(BRUSH_NAME);
-            meta.getPersistentDataContainer().set(BRUSH_KEY, PersistentDataType.BYTE, (byte) 1);
-            item.setItemMeta(meta);
+        Tool tool = (user, action, clicked) -> {
+            if (action != Action.RIGHT_CLICK_BLOCK || clicked == null) {
+                return false;
+            }
+            paint(user, brush, clicked);
+            return true;
+        };
+        String name = BRUSH_NAME + ChatColor.GRAY + " (sphere r=" + radius + ", " + blockData.getMaterial().name().toLowerCase(Locale.ROOT) + ")";
+        ItemStack held = player.getInventory().getItemInMainHand();
+        if (held != null && held.getType() != Material.AIR) {
+            try {
+                plugin.getToolManager().bind(player, held, tool, name);
+            } catch (IllegalArgumentException ex) {
+                player.sendMessage(ChatColor.RED + ex.getMessage());
+                return;
+            }
+            player.getInventory().setItemInMainHand(held);
+            player.sendMessage(ChatColor.AQUA + "Sphere brush (r=" + radius + ") bound to the item in your hand.");
+            return;
         }
+        ItemStack item = new ItemStack(BRUSH_MATERIAL);
+        plugin.getToolManager().bind(player, item, tool, name);
         player.getInventory().addItem(item);
         player.sendMessage(ChatColor.AQUA + "Sphere brush set (r=" + radius + "). Use the brush item to paint.");
     }
 
-    @EventHandler
-    public void onPlayerInteract(PlayerInteractEvent event) {
-        if (event.getAction() != Action.RIGHT_CLICK_BLOCK) {
-            return;
-        }
-        ItemStack item = event.getItem();
-        if (item == null || item.getType() != BRUSH_MATERIAL) {
-            return;
-        }
-        ItemMeta meta = item.getItemMeta();
-        if (meta == null || !meta.getPersistentDataContainer().has(BRUSH_KEY, PersistentDataType.BYTE)) {
-            return;
-        }
-        Player player = event.getPlayer();
-        Brush brush = brushMap.get(player.getUniqueId());
-        if (brush == null) {
-            player.sendMessage(ChatColor.RED + "You have no brush configured. Use /se brush sphere ...");
-            return;
-        }
-        Block clicked = event.getClickedBlock();
-        if (clicked == null) {
-            return;
-        }
-        // Build sphere
+    /**
+     * Paints a sphere of the brush's block data centred on the clicked block.
+     */
+    private void paint(Player player, Brush brush, Block clicked) {
         int r = brush.getRadius();
-        Vector center = clicked.getLocation().toVector().add(new Vector(0.5, 0.5, 0.5));
-        Map<Location, BlockData> before = new HashMap<>();
-        Map<Location, BlockData> after = new HashMap<>();
-        for (int dx = -r; dx <= r; dx++) {
-            for (int dy = -r; dy <= r; dy++) {
-                for (int dz = -r; dz <= r; dz++) {
-                    double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
-                    if (distance <= r + 0.5) {
-                        int x = clicked.getX() + dx;
-                        int y = clicked.getY() + dy;
-                        int z = clicked.getZ() + dz;
-                        if (y < 0 || y >= player.getWorld().getMaxHeight()) {
-                            continue;
-                        }
-                        Location loc = new Location(player.getWorld(), x, y, z);
-                        Material current = loc.getBlock().getType();
-                        if (!brush.isAllowed(current)) {
-                            continue;
-                        }
-                        before.put(loc, loc.getBlock().getBlockData().clone());
-                        after.put(loc, brush.getBlockData());
-                    }
-                }
+        World world = player.getWorld();
+        EditExecutor executor = plugin.getEditExecutor();
+        int cx = clicked.getX();
+        int cy = clicked.getY();
+        int cz = clicked.getZ();
+        Region bounds = new Region(new Vector(cx - r, cy - r, cz - r), new Vector(cx + r, cy + r, cz + r));
+        executor.buildOperation(world, bounds, edit -> edit.forEachBlock(bounds, (x, y, z, current) -> {
+            int dx = x - cx;
+            int dy = y - cy;
+            int dz = z - cz;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (distance <= r + 0.5 && brush.isAllowed(current.getMaterial())) {
+                edit.set(x, y, z, current, brush.getBlockData());
             }
-        }
-        Operation op = new Operation(player.getWorld(), before, after);
-        op.apply();
-        plugin.getHistoryManager().recordOperation(player, op);
-        player.sendMessage(ChatColor.GREEN + "Painted sphere with radius " + r + ".");
-        event.setCancelled(true);
+        }), op -> {
+            executor.apply(op, () -> {
+                plugin.getHistoryManager().recordOperation(player, op);
+                player.sendMessage(ChatColor.GREEN + "Painted sphere with radius " + r + ".");
+            });
+        });
     }
 
     /**
@@ -0,0 +1,60 @@
+package com.stellarisedit.edit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A sparse set of block positions backed by one bitset per chunk column.  Each
+ * touched chunk costs a fixed {@code 16 * 16 * height} bits regardless of how
+ * many positions are stored in it, which is far smaller than a hash set of
+ * boxed locations once more than a handful of blocks are visited.
+ */
+public class ChunkBitSet {
+    private final int minY;
+    private final int height;
+    private final Map<Long, long[]> chunks = new HashMap<>();
+
+    public ChunkBitSet(int minY, int maxY) {
+        this.minY = minY;
+        this.height = maxY - minY;
+    }
+
+    /**
+     * Adds the position to the set.  Returns true if it was not already present.
+     */
+    public boolean add(int x, int y, int z) {
+        long key = ChunkSnapshotCache.chunkKey(x >> 4, z >> 4);
+        long[] bits = chunks.get(key);
+        if (bits == null) {
+            bits = new long[(16 * 16 * height + 63) >> 6];
+            chunks.put(key, bits);
+        }
+        int index = index(x, y, z);
+        long mask = 1L << (index & 63);
+        if ((bits[index >> 6] & mask) != 0) {
+            return false;
+        }
+        bits[index >> 6] |= mask;
+        return true;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        long[] bits = chunks.get(ChunkSnapshotCache.chunkKey(x >> 4, z >> 4));
+        if (bits == null) {
+            return false;
+        }
+        int index = index(x, y, z);
+        return (bits[index >> 6] & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Returns the number of chunk bitsets currently allocated.
+     */
+    public int chunkCount() {
+        return chunks.size();
+    }
+
+    private int index(int x, int y, int z) {
+        return (((y - minY) << 8) | ((z & 15) << 4) | (x & 15));
+    }
+}
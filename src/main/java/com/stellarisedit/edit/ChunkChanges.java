@@ -0,0 +1,100 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.block.data.BlockData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes an {@link Operation} makes inside one chunk column, stored
+ * compactly: each change is a packed position plus palette indexes for its
+ * original and new state, so a change costs eight bytes however large the edit
+ * is.  The palette is shared by both states.  Each position must be added at
+ * most once.
+ */
+final class ChunkChanges {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final int minY;
+    private final List<BlockData> palette = new ArrayList<>();
+    private final Map<BlockData, Short> paletteIndex = new HashMap<>();
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private short[] before = new short[INITIAL_CAPACITY];
+    private short[] after = new short[INITIAL_CAPACITY];
+    private int size;
+
+    ChunkChanges(int chunkX, int chunkZ, int minY) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.minY = minY;
+    }
+
+    long getChunkKey() {
+        return ChunkSnapshotCache.chunkKey(chunkX, chunkZ);
+    }
+
+    /**
+     * Records that the block at the given world position changes from
+     * {@code original} to {@code result}.  The position must lie in this chunk.
+     */
+    void add(int x, int y, int z, BlockData original, BlockData result) {
+        if (size == positions.length) {
+            int capacity = size * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            before = Arrays.copyOf(before, capacity);
+            after = Arrays.copyOf(after, capacity);
+        }
+        positions[size] = (y - minY) << 8 | (x & 15) << 4 | (z & 15);
+        before[size] = index(original);
+        after[size] = index(result);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getX(int i) {
+        return chunkX << 4 | (positions[i] >> 4 & 15);
+    }
+
+    int getY(int i) {
+        return (positions[i] >>> 8) + minY;
+    }
+
+    int getZ(int i) {
+        return chunkZ << 4 | (positions[i] & 15);
+    }
+
+    BlockData getBefore(int i) {
+        return palette.get(before[i]);
+    }
+
+    BlockData getAfter(int i) {
+        return palette.get(after[i]);
+    }
+
+    void forEach(Operation.ChangeVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(getX(i), getY(i), getZ(i), getBefore(i), getAfter(i));
+        }
+    }
+
+    private short index(BlockData data) {
+        Short index = paletteIndex.get(data);
+        if (index == null) {
+            if (palette.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Chunk change palette is full");
+            }
+            index = (short) palette.size();
+            palette.add(data);
+            paletteIndex.put(data, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,38 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Chunk;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * One chunk's share of an operation being built by
+ * {@link EditExecutor#buildOperation}.  It is filled on the thread owning the
+ * chunk, reading the live chunk, and the changes recorded here become the
+ * operation's changes for this chunk once every chunk has been visited.  When
+ * built through {@link EditExecutor#buildAndApply} each change is also written
+ * to the world as it is recorded.
+ */
+public class ChunkEdit extends ChunkReader {
+    private final ChunkChanges changes;
+    private final boolean applyNow;
+
+    ChunkEdit(Chunk chunk, boolean applyNow) {
+        super(chunk);
+        this.changes = new ChunkChanges(chunk.getX(), chunk.getZ(), getWorld().getMinHeight());
+        this.applyNow = applyNow;
+    }
+
+    /**
+     * Records that the block at the given position, currently {@code current},
+     * becomes {@code data}.  Each position may be set at most once.
+     */
+    public void set(int x, int y, int z, BlockData current, BlockData data) {
+        changes.add(x, y, z, current, data);
+        if (applyNow) {
+            getChunk().getBlock(x & 15, y, z & 15).setBlockData(data, false);
+        }
+    }
+
+    ChunkChanges getChanges() {
+        return changes;
+    }
+}
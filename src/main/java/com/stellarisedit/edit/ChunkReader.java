@@ -0,0 +1,106 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Read access to one loaded chunk, handed out by {@link EditExecutor} on the
+ * thread that owns the chunk.  Blocks are read straight from the live chunk, so
+ * a reader must only be used inside the task it was passed to.
+ */
+public class ChunkReader {
+    private final World world;
+    private final Chunk chunk;
+    private final int minX;
+    private final int minZ;
+    private final int minY;
+    private final int maxY;
+
+    ChunkReader(Chunk chunk) {
+        this.world = chunk.getWorld();
+        this.chunk = chunk;
+        this.minX = chunk.getX() << 4;
+        this.minZ = chunk.getZ() << 4;
+        this.minY = world.getMinHeight();
+        this.maxY = world.getMaxHeight();
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the key of this chunk (see {@link ChunkSnapshotCache#chunkKey}).
+     */
+    public long getChunkKey() {
+        return ChunkSnapshotCache.chunkKey(chunk.getX(), chunk.getZ());
+    }
+
+    Chunk getChunk() {
+        return chunk;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMaxX() {
+        return minX + 15;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxZ() {
+        return minZ + 15;
+    }
+
+    /**
+     * Returns the block data at the given world coordinates, or null if they lie
+     * outside this chunk or the world height.
+     */
+    public BlockData getBlockData(int x, int y, int z) {
+        if (y < minY || y >= maxY || x < minX || x > minX + 15 || z < minZ || z > minZ + 15) {
+            return null;
+        }
+        return chunk.getBlock(x & 15, y, z & 15).getBlockData();
+    }
+
+    /**
+     * Returns the Y coordinate of the column's highest block according to the
+     * world's heightmap.
+     */
+    public int getHighestBlockYAt(int x, int z) {
+        return world.getHighestBlockYAt(x, z);
+    }
+
+    /**
+     * Calls the visitor for every position of the region that lies inside this
+     * chunk and the world height, with the block currently there.
+     */
+    public void forEachBlock(Region region, BlockVisitor visitor) {
+        int fromX = Math.max(region.getMinX(), minX);
+        int toX = Math.min(region.getMaxX(), minX + 15);
+        int fromY = Math.max(region.getMinY(), minY);
+        int toY = Math.min(region.getMaxY(), maxY - 1);
+        int fromZ = Math.max(region.getMinZ(), minZ);
+        int toZ = Math.min(region.getMaxZ(), minZ + 15);
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    visitor.visit(x, y, z, chunk.getBlock(x & 15, y, z & 15).getBlockData());
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the blocks visited by {@link #forEachBlock}.
+     */
+    @FunctionalInterface
+    public interface BlockVisitor {
+        void visit(int x, int y, int z, BlockData current);
+    }
+}
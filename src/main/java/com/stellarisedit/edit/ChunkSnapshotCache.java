@@ -0,0 +1,154 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.scheduler.EditScheduler;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lazily captures chunk snapshots for a world so that large read-heavy operations
+ * can inspect blocks without going through the live world for every coordinate.
+ * The number of cached chunks is capped; once the cap is reached further chunks
+ * are reported as unavailable and {@link #isLimitReached()} returns true.
+ * Ungenerated chunks are never loaded and are also reported as unavailable, as
+ * are chunks the calling thread does not own on a region-threaded server; the
+ * latter sets {@link #isUnownedReached()} so callers can tell a real boundary
+ * from one they could not read.  A cache built from pre-captured snapshots never
+ * captures further chunks.
+ */
+public class ChunkSnapshotCache {
+    private final World world;
+    private final int minY;
+    private final int maxY;
+    private final int maxChunks;
+    private final EditScheduler scheduler;
+    private final Map<Long, ChunkSnapshot> snapshots;
+    private boolean limitReached;
+    private boolean unownedReached;
+
+    public ChunkSnapshotCache(World world, int maxChunks, EditScheduler scheduler) {
+        this.world = world;
+        this.minY = world.getMinHeight();
+        this.maxY = world.getMaxHeight();
+        this.maxChunks = maxChunks;
+        this.scheduler = scheduler;
+        this.snapshots = new HashMap<>();
+    }
+
+    public ChunkSnapshotCache(World world, Map<Long, ChunkSnapshot> captured) {
+        this.world = world;
+        this.minY = world.getMinHeight();
+        this.maxY = world.getMaxHeight();
+        this.maxChunks = captured.size();
+        this.scheduler = null;
+        this.snapshots = new HashMap<>(captured);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the snapshot for the given chunk, capturing it on first access.
+     * Returns null if the chunk has not been generated, is owned by another
+     * thread or the chunk limit has been reached.
+     */
+    public ChunkSnapshot getSnapshot(int chunkX, int chunkZ) {
+        long key = chunkKey(chunkX, chunkZ);
+        ChunkSnapshot snapshot = snapshots.get(key);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        if (scheduler == null) {
+            return null;
+        }
+        if (snapshots.size() >= maxChunks) {
+            limitReached = true;
+            return null;
+        }
+        if (!scheduler.isOwnedByCurrentThread(world, chunkX, chunkZ)) {
+            unownedReached = true;
+            return null;
+        }
+        if (!world.isChunkGenerated(chunkX, chunkZ)) {
+            return null;
+        }
+        snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot();
+        snapshots.put(key, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Returns true if a snapshot of the chunk is cached.
+     */
+    public boolean contains(int chunkX, int chunkZ) {
+        return snapshots.containsKey(chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Returns the block data at the given world coordinates, or null if the
+     * containing chunk is unavailable or the height is outside the world.
+     */
+    public BlockData getBlockData(int x, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return null;
+        }
+        ChunkSnapshot snapshot = getSnapshot(x >> 4, z >> 4);
+        return snapshot == null ? null : snapshot.getBlockData(x & 15, y, z & 15);
+    }
+
+    /**
+     * Returns the material at the given world coordinates, or null if the
+     * containing chunk is unavailable or the height is outside the world.
+     */
+    public Material getType(int x, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return null;
+        }
+        ChunkSnapshot snapshot = getSnapshot(x >> 4, z >> 4);
+        return snapshot == null ? null : snapshot.getBlockType(x & 15, y, z & 15);
+    }
+
+    /**
+     * Returns all snapshots currently cached.
+     */
+    public Collection<ChunkSnapshot> getSnapshots() {
+        return Collections.unmodifiableCollection(snapshots.values());
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    public boolean isLimitReached() {
+        return limitReached;
+    }
+
+    /**
+     * Returns true if a chunk was requested that the calling thread does not own.
+     */
+    public boolean isUnownedReached() {
+        return unownedReached;
+    }
+
+    /**
+     * Packs chunk coordinates into a single long key.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int chunkZ(long key) {
+        return (int) key;
+    }
+}
@@ -3,14 +3,17 @@ package com.stellarisedit.edit;
 import com.stellarisedit.StellarisEdit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
-import org.bukkit.block.Block;
+import org.bukkit.World;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 import org.bukkit.util.Vector;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages clipboard operations (copy/paste) per player.  When copying a region
@@ -20,7 +23,7 @@ import java.util.UUID;
  */
 public class ClipboardManager {
     private final StellarisEdit plugin;
-    private final Map<UUID, Clipboard> clipboardMap = new HashMap<>();
+    private final Map<UUID, Clipboard> clipboardMap = new ConcurrentHashMap<>();
 
     public ClipboardManager(StellarisEdit plugin) {
         this.plugin = plugin;
@@ -36,22 +39,17 @@ public class ClipboardManager {
             player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
             return;
         }
-        Map<Vector, BlockData> relative = new HashMap<>();
         Vector min = new Vector(region.getMinX(), region.getMinY(), region.getMinZ());
-        // iterate through region
-        for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
-            for (int y = region.getMinY(); y <= region.getMaxY(); y++) {
-                for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
-                    Location loc = new Location(player.getWorld(), x, y, z);
-                    BlockData data = loc.getBlock().getBlockData().clone();
-                    Vector rel = new Vector(x - min.getBlockX(), y - min.getBlockY(), z - min.getBlockZ());
-                    relative.put(rel, data);
-                }
-            }
-        }
-        Vector size = new Vector(region.getMaxX() - region.getMinX() + 1, region.getMaxY() - region.getMinY() + 1, region.getMaxZ() - region.getMinZ() + 1);
-        clipboardMap.put(player.getUniqueId(), new Clipboard(relative, size));
-        player.sendMessage(ChatColor.AQUA + "Copied selection (" + relative.size() + " blocks).");
+        // Filled by several chunks at once on a region-threaded server
+        Map<Vector, BlockData> relative = new ConcurrentHashMap<>();
+        EditExecutor executor = plugin.getEditExecutor();
+        executor.readChunks(player.getWorld(), EditExecutor.chunkKeys(region.getMinX() >> 4, region.getMinZ() >> 4,
+                region.getMaxX() >> 4, region.getMaxZ() >> 4), reader -> reader.forEachBlock(region, (x, y, z, data) ->
+                relative.put(new Vector(x - min.getBlockX(), y - min.getBlockY(), z - min.getBlockZ()), data)), () -> {
+            Vector size = new Vector(region.getMaxX() - region.getMinX() + 1, region.getMaxY() - region.getMinY() + 1, region.getMaxZ() - region.getMinZ() + 1);
+            clipboardMap.put(player.getUniqueId(), new Clipboard(relative, size));
+            player.sendMessage(ChatColor.AQUA + "Copied selection (" + relative.size() + " blocks).");
+        });
     }
 
     /**
@@ -66,22 +64,38 @@ public class ClipboardManager {
             return;
         }
         Location base = player.getLocation().getBlock().getLocation();
-        Map<Location, BlockData> before = new HashMap<>();
-        Map<Location, BlockData> after = new HashMap<>();
+        World world = player.getWorld();
+        // Group the blocks by target chunk so each chunk task only sees its own
+        Map<Long, List<Map.Entry<Vector, BlockData>>> byChunk = new HashMap<>();
         for (Map.Entry<Vector, BlockData> entry : clipboard.getRelativeBlocks().entrySet()) {
             Vector offset = entry.getKey();
-            BlockData data = entry.getValue();
-            int tx = base.getBlockX() + offset.getBlockX();
-            int ty = base.getBlockY() + offset.getBlockY();
-            int tz = base.getBlockZ() + offset.getBlockZ();
-            Location target = new Location(player.getWorld(), tx, ty, tz);
-            before.put(target, target.getBlock().getBlockData().clone());
-            after.put(target, data);
+            long key = ChunkSnapshotCache.chunkKey((base.getBlockX() + offset.getBlockX()) >> 4,
+                    (base.getBlockZ() + offset.getBlockZ()) >> 4);
+            byChunk.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
         }
-        // Apply changes
-        Operation op = new Operation(player.getWorld(), before, after);
-        op.apply();
-        plugin.getHistoryManager().recordOperation(player, op);
-        player.sendMessage(ChatColor.AQUA + "Pasted clipboard at your location (" + after.size() + " blocks).");
+        EditExecutor executor = plugin.getEditExecutor();
+        executor.buildOperation(world, byChunk.keySet(), edit -> {
+            for (Map.Entry<Vector, BlockData> entry : byChunk.get(edit.getChunkKey())) {
+                Vector offset = entry.getKey();
+                int tx = base.getBlockX() + offset.getBlockX();
+                int ty = base.getBlockY() + offset.getBlockY();
+                int tz = base.getBlockZ() + offset.getBlockZ();
+                BlockData current = edit.getBlockData(tx, ty, tz);
+                if (current != null) {
+                    edit.set(tx, ty, tz, current, entry.getValue());
+                }
+            }
+        }, op -> {
+            // Apply changes, or only show them while the player is previewing
+            String message = ChatColor.AQUA + "Pasted clipboard at your location (" + op.getBlockCount() + " blocks).";
+            if (plugin.getPreviewManager().isEnabled(player)) {
+                plugin.getPreviewManager().show(player, op, message);
+                return;
+            }
+            executor.apply(op, () -> {
+                plugin.getHistoryManager().recordOperation(player, op);
+                player.sendMessage(message);
+            });
+        });
     }
 }
@@ -0,0 +1,430 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.StellarisEdit;
+import com.stellarisedit.scheduler.EditScheduler;
+import org.bukkit.ChatColor;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Computes block distributions (counts per block state) over a player's selection.
+ * Chunk snapshots are captured on the threads owning the chunks, a few chunks per
+ * tick ({@code distribution.chunks-per-tick}), and the per-section histograms
+ * are computed in parallel off the tick threads.  Histograms of sections that
+ * lie completely inside the selection are cached and reused by later queries until
+ * an operation, a player edit, an explosion, a piston or flowing liquid touches
+ * that section.  Changes no event reports (growth, decay, other plugins) are
+ * covered by expiring cached histograms after {@code distribution.cache-ttl-seconds}.
+ * A histogram is not cached if its own section was edited while the query was
+ * running; edits elsewhere do not affect it.
+ */
+public class DistributionManager implements Listener {
+    private static final int PAGE_SIZE = 8;
+
+    private final StellarisEdit plugin;
+    private final Map<UUID, Map<Long, CachedSection>> cache = new ConcurrentHashMap<>();
+    private final int maxCachedSections;
+    private final long cacheTtlMillis;
+    private final int maxChunks;
+    private final int chunksPerTick;
+    private final Set<PendingQuery> pending = ConcurrentHashMap.newKeySet();
+
+    public DistributionManager(StellarisEdit plugin) {
+        this.plugin = plugin;
+        this.maxCachedSections = plugin.getConfig().getInt("distribution.cache-sections", 65536);
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("distribution.cache-ttl-seconds", 300));
+        this.maxChunks = plugin.getConfig().getInt("distribution.max-chunks", 1024);
+        this.chunksPerTick = Math.max(1, plugin.getConfig().getInt("distribution.chunks-per-tick", 16));
+    }
+
+    /**
+     * Counts the blocks in the player's selection whose material is in the mask.
+     */
+    public void count(Player player, Set<Material> mask) {
+        analyse(player, histogram -> {
+            int total = 0;
+            int matched = 0;
+            for (Map.Entry<BlockData, Integer> entry : histogram.entrySet()) {
+                total += entry.getValue();
+                if (mask.contains(entry.getKey().getMaterial())) {
+                    matched += entry.getValue();
+                }
+            }
+            player.sendMessage(ChatColor.AQUA + "Counted " + matched + " matching blocks out of " + total
+                    + " (" + percent(matched, total) + ").");
+        });
+    }
+
+    /**
+     * Shows one page of the block distribution of the player's selection, grouped
+     * by material or, if states is true, by full block state.
+     */
+    public void distribution(Player player, int page, boolean states) {
+        analyse(player, histogram -> {
+            Map<String, Integer> grouped = new HashMap<>();
+            int total = 0;
+            for (Map.Entry<BlockData, Integer> entry : histogram.entrySet()) {
+                String name = states ? entry.getKey().getAsString() : entry.getKey().getMaterial().name();
+                grouped.merge(name, entry.getValue(), Integer::sum);
+                total += entry.getValue();
+            }
+            List<Map.Entry<String, Integer>> sorted = grouped.entrySet().stream()
+                    .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+                    .collect(Collectors.toList());
+            int pages = Math.max(1, (sorted.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+            int current = Math.min(Math.max(page, 1), pages);
+            player.sendMessage(ChatColor.AQUA + "Block distribution (" + total + " blocks, page "
+                    + current + "/" + pages + "):");
+            int start = (current - 1) * PAGE_SIZE;
+            for (int i = start; i < Math.min(start + PAGE_SIZE, sorted.size()); i++) {
+                Map.Entry<String, Integer> entry = sorted.get(i);
+                player.sendMessage(ChatColor.YELLOW + entry.getKey() + ChatColor.WHITE + " " + entry.getValue()
+                        + ChatColor.GRAY + " (" + percent(entry.getValue(), total) + ")");
+            }
+            if (current < pages) {
+                player.sendMessage(ChatColor.GRAY + "Use /se distr " + (current + 1) + (states ? " -s" : "")
+                        + " for the next page.");
+            }
+        });
+    }
+
+    /**
+     * Drops cached histograms for every section touched by the operation.
+     */
+    public void invalidate(Operation op) {
+        UUID worldId = op.getWorld().getUID();
+        if (!isCached(worldId) && !isPending(worldId)) {
+            return;
+        }
+        Set<Long> keys = new HashSet<>();
+        for (long chunkKey : op.getChunkKeys()) {
+            op.forEachChange(chunkKey, (x, y, z, original, result) -> keys.add(sectionKey(x >> 4, y >> 4, z >> 4)));
+        }
+        invalidate(worldId, keys);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        invalidate(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        invalidate(event.getBlockPlaced());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        invalidate(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        invalidate(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        invalidate(event.getBlock().getWorld().getUID(), sectionKeys(event.blockList(), null));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        invalidate(event.getEntity().getWorld().getUID(), sectionKeys(event.blockList(), null));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        invalidatePiston(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        invalidatePiston(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    /**
+     * Drops the sections of the piston, its head and every moved block at both
+     * its old and new position.
+     */
+    private void invalidatePiston(Block piston, List<Block> moved, BlockFace direction) {
+        Set<Long> keys = sectionKeys(moved, direction);
+        keys.addAll(sectionKeys(Collections.singletonList(piston), direction));
+        keys.addAll(sectionKeys(Collections.singletonList(piston), direction.getOppositeFace()));
+        invalidate(piston.getWorld().getUID(), keys);
+    }
+
+    private void invalidate(Block block) {
+        invalidate(block.getWorld().getUID(), Collections.singleton(sectionKey(block.getX() >> 4, block.getY() >> 4, block.getZ() >> 4)));
+    }
+
+    private void invalidate(UUID worldId, Set<Long> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        markDirty(worldId, keys);
+        Map<Long, CachedSection> worldCache = cache.get(worldId);
+        if (worldCache != null) {
+            for (long key : keys) {
+                worldCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the sections holding the blocks and, if a direction is
+     * given, the blocks next to them in that direction.
+     */
+    private static Set<Long> sectionKeys(Collection<Block> blocks, BlockFace direction) {
+        Set<Long> keys = new HashSet<>();
+        for (Block block : blocks) {
+            keys.add(sectionKey(block.getX() >> 4, block.getY() >> 4, block.getZ() >> 4));
+            if (direction != null) {
+                keys.add(sectionKey((block.getX() + direction.getModX()) >> 4, (block.getY() + direction.getModY()) >> 4,
+                        (block.getZ() + direction.getModZ()) >> 4));
+            }
+        }
+        return keys;
+    }
+
+    private boolean isCached(UUID worldId) {
+        Map<Long, CachedSection> worldCache = cache.get(worldId);
+        return worldCache != null && !worldCache.isEmpty();
+    }
+
+    private boolean isPending(UUID worldId) {
+        for (PendingQuery query : pending) {
+            if (query.worldId.equals(worldId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells every query still running in the world that these sections changed,
+     * so their freshly computed histograms are not cached.
+     */
+    private void markDirty(UUID worldId, Set<Long> keys) {
+        for (PendingQuery query : pending) {
+            if (query.worldId.equals(worldId)) {
+                query.dirty.addAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Builds the histogram of the player's selection and hands it to the consumer
+     * on the global thread.  Cached sections are used directly; the remaining
+     * sections are computed in parallel on an async task.
+     */
+    private void analyse(Player player, Consumer<Map<BlockData, Integer>> consumer) {
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        World world = player.getWorld();
+        int minY = Math.max(region.getMinY(), world.getMinHeight());
+        int maxY = Math.min(region.getMaxY(), world.getMaxHeight() - 1);
+        if (minY > maxY) {
+            player.sendMessage(ChatColor.RED + "Your selection is outside the world height.");
+            return;
+        }
+        int minCx = region.getMinX() >> 4;
+        int maxCx = region.getMaxX() >> 4;
+        int minCz = region.getMinZ() >> 4;
+        int maxCz = region.getMaxZ() >> 4;
+        long chunkCount = (long) (maxCx - minCx + 1) * (maxCz - minCz + 1);
+        if (chunkCount > maxChunks) {
+            player.sendMessage(ChatColor.RED + "Selection spans " + chunkCount + " chunks; the limit is " + maxChunks + ".");
+            return;
+        }
+        Map<Long, CachedSection> worldCache = worldCache(world);
+        long now = System.currentTimeMillis();
+        List<Map<BlockData, Integer>> cached = new ArrayList<>();
+        List<SectionTask> tasks = new ArrayList<>();
+        Set<Long> chunkKeys = new HashSet<>();
+        for (int cx = minCx; cx <= maxCx; cx++) {
+            for (int cz = minCz; cz <= maxCz; cz++) {
+                for (int sy = minY >> 4; sy <= maxY >> 4; sy++) {
+                    SectionTask task = new SectionTask(cx, sy, cz,
+                            Math.max(region.getMinX(), cx << 4), Math.min(region.getMaxX(), (cx << 4) + 15),
+                            Math.max(minY, sy << 4), Math.min(maxY, (sy << 4) + 15),
+                            Math.max(region.getMinZ(), cz << 4), Math.min(region.getMaxZ(), (cz << 4) + 15));
+                    if (task.isFullSection()) {
+                        CachedSection section = worldCache.get(task.key);
+                        if (section != null && now - section.cachedAt < cacheTtlMillis) {
+                            cached.add(section.histogram);
+                            continue;
+                        }
+                    }
+                    tasks.add(task);
+                    chunkKeys.add(ChunkSnapshotCache.chunkKey(cx, cz));
+                }
+            }
+        }
+        // Registered before the capture so edits made after it are seen
+        PendingQuery query = new PendingQuery(world.getUID());
+        pending.add(query);
+        EditScheduler scheduler = plugin.getEditExecutor().getScheduler();
+        plugin.getEditExecutor().captureSnapshots(world, chunkKeys, chunksPerTick, snapshots -> {
+            // Sections of ungenerated chunks have no snapshot and are skipped
+            List<SectionTask> ready = new ArrayList<>();
+            for (SectionTask task : tasks) {
+                task.snapshot = snapshots.getSnapshot(task.chunkX, task.chunkZ);
+                if (task.snapshot != null) {
+                    ready.add(task);
+                }
+            }
+            scheduler.runAsync(() -> {
+                try {
+                    ready.parallelStream().forEach(SectionTask::compute);
+                } catch (RuntimeException ex) {
+                    pending.remove(query);
+                    throw ex;
+                }
+                scheduler.runGlobal(() -> {
+                    Map<BlockData, Integer> total = new HashMap<>();
+                    for (Map<BlockData, Integer> histogram : cached) {
+                        histogram.forEach((data, count) -> total.merge(data, count, Integer::sum));
+                    }
+                    pending.remove(query);
+                    for (SectionTask task : ready) {
+                        task.result.forEach((data, count) -> total.merge(data, count, Integer::sum));
+                        if (task.isFullSection() && !query.dirty.contains(task.key)) {
+                            worldCache.put(task.key, new CachedSection(task.result));
+                        }
+                    }
+                    if (player.isOnline()) {
+                        consumer.accept(total);
+                    }
+                });
+            });
+        });
+    }
+
+    private Map<Long, CachedSection> worldCache(World world) {
+        return cache.computeIfAbsent(world.getUID(), k -> Collections.synchronizedMap(
+                new LinkedHashMap<Long, CachedSection>(256, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Long, CachedSection> eldest) {
+                        return size() > maxCachedSections;
+                    }
+                }));
+    }
+
+    private static String percent(int part, int total) {
+        return total == 0 ? "0%" : String.format(Locale.ROOT, "%.1f%%", part * 100.0 / total);
+    }
+
+    /**
+     * Packs section coordinates into a single long key.
+     */
+    public static long sectionKey(int chunkX, int sectionY, int chunkZ) {
+        return ((long) (chunkX & 0x3FFFFF) << 42) | ((long) (chunkZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    /**
+     * The histogram of one full section and the time it was computed.
+     */
+    private static final class CachedSection {
+        private final Map<BlockData, Integer> histogram;
+        private final long cachedAt = System.currentTimeMillis();
+
+        CachedSection(Map<BlockData, Integer> histogram) {
+            this.histogram = histogram;
+        }
+    }
+
+    /**
+     * A distribution query between capturing its snapshots and merging its
+     * histograms, with the sections edited in its world meanwhile.
+     */
+    private static final class PendingQuery {
+        private final UUID worldId;
+        private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+        PendingQuery(UUID worldId) {
+            this.worldId = worldId;
+        }
+    }
+
+    /**
+     * The part of one chunk section that lies inside the selection.  Computed off
+     * the main thread from an immutable chunk snapshot.
+     */
+    private static final class SectionTask {
+        private final long key;
+        private final int chunkX;
+        private final int chunkZ;
+        private final int minX;
+        private final int maxX;
+        private final int minY;
+        private final int maxY;
+        private final int minZ;
+        private final int maxZ;
+        private ChunkSnapshot snapshot;
+        private Map<BlockData, Integer> result;
+
+        SectionTask(int chunkX, int sectionY, int chunkZ, int minX, int maxX, int minY, int maxY, int minZ, int maxZ) {
+            this.key = sectionKey(chunkX, sectionY, chunkZ);
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+        }
+
+        boolean isFullSection() {
+            return maxX - minX == 15 && maxY - minY == 15 && maxZ - minZ == 15;
+        }
+
+        void compute() {
+            Map<BlockData, Integer> histogram = new HashMap<>();
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        histogram.merge(snapshot.getBlockData(x & 15, y, z & 15), 1, Integer::sum);
+                    }
+                }
+            }
+            result = histogram;
+        }
+    }
+}
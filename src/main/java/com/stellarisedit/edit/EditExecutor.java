@@ -0,0 +1,203 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.scheduler.EditScheduler;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs world reads and writes on the threads that own the affected chunks.  Work
+ * is split per chunk and each piece is handed to the {@link EditScheduler}; once
+ * every piece has finished, the completion callback runs on the global thread.
+ * On a classic server all pieces and the callback run inline on the main thread,
+ * while on a region-threaded server a large edit is spread across every region
+ * thread it touches.  A piece that throws is logged and does not stop the
+ * others or the callback.
+ *
+ * Operations are built by reading the live chunks on their owning threads.
+ * Full chunk snapshots are costly to take, so they are only captured for
+ * readers that work off the tick threads.
+ */
+public class EditExecutor {
+    private final EditScheduler scheduler;
+    private final Logger logger;
+
+    public EditExecutor(EditScheduler scheduler, Logger logger) {
+        this.scheduler = scheduler;
+        this.logger = logger;
+    }
+
+    public EditScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Applies the operation chunk by chunk and then runs the callback.
+     */
+    public void apply(Operation op, Runnable whenDone) {
+        forEachChunk(op.getWorld(), op.getChunkKeys(), op::applyChunk, whenDone);
+    }
+
+    /**
+     * Reverts the operation chunk by chunk and then runs the callback.
+     */
+    public void revert(Operation op, Runnable whenDone) {
+        forEachChunk(op.getWorld(), op.getChunkKeys(), op::revertChunk, whenDone);
+    }
+
+    /**
+     * Builds an operation chunk by chunk.  The builder is called for every
+     * generated chunk in the collection, on the thread owning it, with a
+     * {@link ChunkEdit} reading the live chunk.  Once every chunk is done the
+     * operation, which takes over each chunk's recorded changes and may be
+     * empty, is passed to the callback on the global thread.  On a
+     * region-threaded server the builder may run for several chunks at once.
+     */
+    public void buildOperation(World world, Collection<Long> chunkKeys, Consumer<ChunkEdit> builder,
+                               Consumer<Operation> whenDone) {
+        build(world, chunkKeys, builder, false, whenDone);
+    }
+
+    /**
+     * Like {@link #buildOperation}, but every change is written to the world as
+     * the builder records it, in the same pass that reads the original state.
+     * The operation passed to the callback has already been applied.
+     */
+    public void buildAndApply(World world, Collection<Long> chunkKeys, Consumer<ChunkEdit> builder,
+                              Consumer<Operation> whenDone) {
+        build(world, chunkKeys, builder, true, whenDone);
+    }
+
+    /**
+     * Builds an operation over every chunk overlapping the region.
+     */
+    public void buildOperation(World world, Region region, Consumer<ChunkEdit> builder, Consumer<Operation> whenDone) {
+        buildOperation(world, chunkKeys(region.getMinX() >> 4, region.getMinZ() >> 4,
+                region.getMaxX() >> 4, region.getMaxZ() >> 4), builder, whenDone);
+    }
+
+    /**
+     * Calls the reader for every generated chunk in the collection, on the thread
+     * owning it, and then runs the callback on the global thread.
+     */
+    public void readChunks(World world, Collection<Long> chunkKeys, Consumer<ChunkReader> reader, Runnable whenDone) {
+        forEachChunk(world, chunkKeys, key -> {
+            Chunk chunk = loadChunk(world, key);
+            if (chunk != null) {
+                reader.accept(new ChunkReader(chunk));
+            }
+        }, whenDone);
+    }
+
+    /**
+     * Captures snapshots of every generated chunk in the given chunk range, at
+     * most {@code chunksPerTick} per tick, and passes them to the callback as a
+     * read-only cache.  Only meant for readers that run off the tick threads.
+     */
+    public void captureSnapshots(World world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ,
+                                 int chunksPerTick, Consumer<ChunkSnapshotCache> whenDone) {
+        captureSnapshots(world, chunkKeys(minChunkX, minChunkZ, maxChunkX, maxChunkZ), chunksPerTick, whenDone);
+    }
+
+    /**
+     * Captures snapshots of every generated chunk in the given collection of chunk
+     * keys and passes them to the callback as a read-only cache.  Only meant for
+     * readers that run off the tick threads.  Capturing may load chunks, so at
+     * most {@code chunksPerTick} chunks are captured per tick, the next batch
+     * starting a tick after the previous one finished.
+     */
+    public void captureSnapshots(World world, Collection<Long> chunkKeys, int chunksPerTick,
+                                 Consumer<ChunkSnapshotCache> whenDone) {
+        captureBatch(world, new ArrayList<>(chunkKeys), 0, Math.max(1, chunksPerTick), new ConcurrentHashMap<>(), whenDone);
+    }
+
+    private void captureBatch(World world, List<Long> keys, int start, int batchSize, Map<Long, ChunkSnapshot> captured,
+                              Consumer<ChunkSnapshotCache> whenDone) {
+        int end = (int) Math.min(keys.size(), (long) start + batchSize);
+        forEachChunk(world, keys.subList(start, end), key -> {
+            int cx = ChunkSnapshotCache.chunkX(key);
+            int cz = ChunkSnapshotCache.chunkZ(key);
+            if (world.isChunkGenerated(cx, cz)) {
+                captured.put(key, world.getChunkAt(cx, cz).getChunkSnapshot());
+            }
+        }, () -> {
+            if (end == keys.size()) {
+                whenDone.accept(new ChunkSnapshotCache(world, captured));
+            } else {
+                scheduler.runGlobalLater(() -> captureBatch(world, keys, end, batchSize, captured, whenDone), 1L);
+            }
+        });
+    }
+
+    /**
+     * Returns the keys of every chunk in the given chunk range.
+     */
+    public static List<Long> chunkKeys(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        List<Long> keys = new ArrayList<>();
+        for (int cx = minChunkX; cx <= maxChunkX; cx++) {
+            for (int cz = minChunkZ; cz <= maxChunkZ; cz++) {
+                keys.add(ChunkSnapshotCache.chunkKey(cx, cz));
+            }
+        }
+        return keys;
+    }
+
+    private void build(World world, Collection<Long> chunkKeys, Consumer<ChunkEdit> builder, boolean applyNow,
+                       Consumer<Operation> whenDone) {
+        Map<Long, ChunkChanges> changes = new ConcurrentHashMap<>();
+        forEachChunk(world, chunkKeys, key -> {
+            Chunk chunk = loadChunk(world, key);
+            if (chunk != null) {
+                ChunkEdit edit = new ChunkEdit(chunk, applyNow);
+                try {
+                    builder.accept(edit);
+                } finally {
+                    // Keep what was recorded so an applied edit can still be undone
+                    if (edit.getChanges().size() > 0) {
+                        changes.put(key, edit.getChanges());
+                    }
+                }
+            }
+        }, () -> whenDone.accept(new Operation(world, changes)));
+    }
+
+    private static Chunk loadChunk(World world, long key) {
+        int cx = ChunkSnapshotCache.chunkX(key);
+        int cz = ChunkSnapshotCache.chunkZ(key);
+        return world.isChunkGenerated(cx, cz) ? world.getChunkAt(cx, cz) : null;
+    }
+
+    private void forEachChunk(World world, Collection<Long> chunkKeys, LongConsumer task, Runnable whenDone) {
+        if (chunkKeys.isEmpty()) {
+            scheduler.runGlobal(whenDone);
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(chunkKeys.size());
+        for (long key : chunkKeys) {
+            scheduler.runAtChunk(world, ChunkSnapshotCache.chunkX(key), ChunkSnapshotCache.chunkZ(key), () -> {
+                try {
+                    task.accept(key);
+                } catch (RuntimeException ex) {
+                    // Inline schedulers would otherwise abort the loop and never reach the callback
+                    logger.log(Level.SEVERE, "Edit task failed for chunk " + ChunkSnapshotCache.chunkX(key)
+                            + ", " + ChunkSnapshotCache.chunkZ(key) + " in " + world.getName(), ex);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        scheduler.runGlobal(whenDone);
+                    }
+                }
+            });
+        }
+    }
+}
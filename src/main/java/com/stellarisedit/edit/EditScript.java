@@ -0,0 +1,142 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.block.data.BlockData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A sequence of set/replace/mask steps compiled into a single per-block pipeline.
+ * Steps are separated by semicolons or newlines; lines starting with '#' are
+ * comments.  Supported steps:
+ * <ul>
+ *     <li>{@code set <blockdata>} - replace every block</li>
+ *     <li>{@code replace <from> <to>} - replace blocks matching {@code from}</li>
+ *     <li>{@code mask <materials>} - limit following steps to the given materials
+ *     ({@code mask *} clears the mask)</li>
+ * </ul>
+ * Masks are evaluated against the block as it is at that point in the pipeline,
+ * so a step sees the result of every step before it.  Because no step depends on
+ * the block's position, the final state is a pure function of the original state
+ * and is memoised per distinct block state.  A script may be applied to several
+ * chunks at once, so the memo is concurrent.
+ */
+public class EditScript {
+    private final List<Step> steps;
+    private final Map<BlockData, BlockData> results = new ConcurrentHashMap<>();
+
+    private EditScript(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Compiles the script source.  Throws IllegalArgumentException with a
+     * user-facing message if a step cannot be parsed.
+     */
+    public static EditScript compile(String source, Server server) {
+        List<Step> steps = new ArrayList<>();
+        Set<Material> mask = null;
+        int number = 0;
+        for (String raw : source.split("[;\\n]")) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            number++;
+            String[] parts = line.split("\\s+");
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "set":
+                    expectArgs(parts, 2, number, "set <blockdata>");
+                    steps.add(new Step(mask, null, parse(server, parts[1], number)));
+                    break;
+                case "replace":
+                    expectArgs(parts, 3, number, "replace <from> <to>");
+                    steps.add(new Step(mask, parse(server, parts[1], number), parse(server, parts[2], number)));
+                    break;
+                case "mask":
+                    expectArgs(parts, 2, number, "mask <materials|*>");
+                    if (parts[1].equals("*")) {
+                        mask = null;
+                    } else {
+                        mask = BrushManager.parseMask(parts[1]);
+                        if (mask == null) {
+                            throw new IllegalArgumentException("Step " + number + ": invalid materials " + parts[1]);
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Step " + number + ": unknown step " + parts[0]);
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("The script has no set or replace steps.");
+        }
+        return new EditScript(Collections.unmodifiableList(steps));
+    }
+
+    public int getStepCount() {
+        return steps.size();
+    }
+
+    /**
+     * Runs every step against the given block state and returns the final state.
+     */
+    public BlockData apply(BlockData original) {
+        BlockData result = results.get(original);
+        if (result == null) {
+            result = original;
+            for (Step step : steps) {
+                result = step.apply(result);
+            }
+            results.put(original, result);
+        }
+        return result;
+    }
+
+    private static void expectArgs(String[] parts, int count, int number, String usage) {
+        if (parts.length != count) {
+            throw new IllegalArgumentException("Step " + number + ": expected " + usage);
+        }
+    }
+
+    private static BlockData parse(Server server, String data, int number) {
+        try {
+            return server.createBlockData(data);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Step " + number + ": invalid block data " + data);
+        }
+    }
+
+    /**
+     * A single set (from is null) or replace step with the mask active when it was
+     * declared.
+     */
+    private static final class Step {
+        private final Set<Material> mask;
+        private final BlockData from;
+        private final BlockData to;
+
+        Step(Set<Material> mask, BlockData from, BlockData to) {
+            this.mask = mask;
+            this.from = from;
+            this.to = to;
+        }
+
+        BlockData apply(BlockData current) {
+            if (mask != null && !mask.contains(current.getMaterial())) {
+                return current;
+            }
+            if (from != null && !current.matches(from)) {
+                return current;
+            }
+            return to;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Finds the connected (face-adjacent) region of blocks matching a predicate,
+ * starting from a seed block.  The search is a 3D scanline fill: each popped
+ * seed is expanded along the X axis into a span, and only the first block of
+ * every matching run in the four neighbouring rows is pushed as a new seed.
+ * This keeps the seed stack small compared to a plain breadth-first search.
+ *
+ * Blocks are read from a {@link ChunkSnapshotCache}, visited state is kept in a
+ * {@link ChunkBitSet}, and seeds and results are stored as packed longs, so no
+ * objects are allocated per visited block.  The fill stops as soon as either
+ * the block limit or the chunk limit would be exceeded, or when it reaches a
+ * chunk owned by another region thread, since it cannot tell whether the area
+ * continues there.
+ */
+public class FloodFill {
+
+    /**
+     * Outcome of a fill.  Anything other than COMPLETE means the result is
+     * partial and should not be applied.
+     */
+    public enum Result {
+        COMPLETE,
+        BLOCK_LIMIT,
+        CHUNK_LIMIT,
+        NOT_OWNED
+    }
+
+    private final ChunkSnapshotCache cache;
+    private final Predicate<BlockData> matcher;
+    private final int minY;
+    private final int maxY;
+    private final int maxBlocks;
+    private final ChunkBitSet visited;
+
+    private long[] stack = new long[256];
+    private int stackSize;
+    private long[] positions = new long[1024];
+    private int positionCount;
+
+    public FloodFill(ChunkSnapshotCache cache, Predicate<BlockData> matcher, int maxBlocks) {
+        World world = cache.getWorld();
+        this.cache = cache;
+        this.matcher = matcher;
+        this.minY = world.getMinHeight();
+        this.maxY = world.getMaxHeight();
+        this.maxBlocks = maxBlocks;
+        this.visited = new ChunkBitSet(minY, maxY);
+    }
+
+    /**
+     * Runs the fill from the given seed block.
+     */
+    public Result run(int seedX, int seedY, int seedZ) {
+        push(seedX, seedY, seedZ);
+        while (stackSize > 0) {
+            long seed = stack[--stackSize];
+            int x = unpackX(seed);
+            int y = unpackY(seed);
+            int z = unpackZ(seed);
+            if (visited.contains(x, y, z) || !matches(x, y, z)) {
+                continue;
+            }
+            int x1 = x;
+            while (!visited.contains(x1 - 1, y, z) && matches(x1 - 1, y, z)) {
+                x1--;
+            }
+            int x2 = x;
+            while (!visited.contains(x2 + 1, y, z) && matches(x2 + 1, y, z)) {
+                x2++;
+            }
+            Result stopped = checkChunks();
+            if (stopped != null) {
+                return stopped;
+            }
+            if (positionCount + (x2 - x1 + 1) > maxBlocks) {
+                return Result.BLOCK_LIMIT;
+            }
+            for (int xi = x1; xi <= x2; xi++) {
+                visited.add(xi, y, z);
+                addPosition(pack(xi, y, z));
+            }
+            scanRow(x1, x2, y - 1, z);
+            scanRow(x1, x2, y + 1, z);
+            scanRow(x1, x2, y, z - 1);
+            scanRow(x1, x2, y, z + 1);
+            stopped = checkChunks();
+            if (stopped != null) {
+                return stopped;
+            }
+        }
+        return Result.COMPLETE;
+    }
+
+    /**
+     * Returns the result to stop with if a chunk could not be read, or null.
+     */
+    private Result checkChunks() {
+        if (cache.isUnownedReached()) {
+            return Result.NOT_OWNED;
+        }
+        if (cache.isLimitReached()) {
+            return Result.CHUNK_LIMIT;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the packed positions of all blocks found by the fill.  Use
+     * {@link #unpackX(long)} and friends to decode them.
+     */
+    public long[] getPositions() {
+        return Arrays.copyOf(positions, positionCount);
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    /**
+     * Returns the snapshot cache used for reading, so callers can look up the
+     * original block data of the filled positions without touching the world.
+     */
+    public ChunkSnapshotCache getCache() {
+        return cache;
+    }
+
+    private void scanRow(int x1, int x2, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return;
+        }
+        boolean inRun = false;
+        for (int x = x1; x <= x2; x++) {
+            boolean open = !visited.contains(x, y, z) && matches(x, y, z);
+            if (open && !inRun) {
+                push(x, y, z);
+            }
+            inRun = open;
+        }
+    }
+
+    private boolean matches(int x, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return false;
+        }
+        BlockData data = cache.getBlockData(x, y, z);
+        return data != null && matcher.test(data);
+    }
+
+    private void push(int x, int y, int z) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = pack(x, y, z);
+    }
+
+    private void addPosition(long packed) {
+        if (positionCount == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[positionCount++] = packed;
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+}
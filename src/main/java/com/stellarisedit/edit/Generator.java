@@ -0,0 +1,137 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.expression.Expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a compiled {@link Expression} over every block of a region and
+ * collects the positions where it is true (non-zero and not NaN).  x and z are
+ * relative to the centre of the region and y to its bottom, so
+ * {@code x^2+z^2<y*4} describes a paraboloid standing on the floor of the
+ * selection, and {@code x^2+z^2<y*4 && noise(x,y,z)>0.2} carves it into
+ * blobs (see {@link Expression} for the noise functions).
+ *
+ * The region is split into one task per chunk column and the tasks are evaluated
+ * in parallel, each with its own register array.  Evaluation only depends on the
+ * coordinates, so it needs no world access and is meant to run off the tick
+ * threads; the caller then captures only the chunks that have hits.
+ */
+public class Generator {
+    private final Region region;
+    private final int minY;
+    private final int maxY;
+    private final Expression expression;
+    private final long maxBlocks;
+    private final AtomicLong found = new AtomicLong();
+    private final Map<Long, long[]> hits = new HashMap<>();
+
+    /**
+     * Creates a generator over the region.  Only layers from minY to maxY, the
+     * region's height clamped to the world, are evaluated.
+     */
+    public Generator(Region region, int minY, int maxY, Expression expression, long maxBlocks) {
+        this.region = region;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.expression = expression;
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * Evaluates the expression for every block.  Returns false if more than
+     * maxBlocks positions matched, in which case the collected hits are
+     * incomplete and must not be used.
+     */
+    public boolean run() {
+        List<ColumnTask> tasks = new ArrayList<>();
+        for (int cx = region.getMinX() >> 4; cx <= region.getMaxX() >> 4; cx++) {
+            for (int cz = region.getMinZ() >> 4; cz <= region.getMaxZ() >> 4; cz++) {
+                tasks.add(new ColumnTask(cx, cz));
+            }
+        }
+        tasks.parallelStream().forEach(ColumnTask::compute);
+        if (isLimitReached()) {
+            return false;
+        }
+        for (ColumnTask task : tasks) {
+            if (task.count > 0) {
+                hits.put(ChunkSnapshotCache.chunkKey(task.chunkX, task.chunkZ), Arrays.copyOf(task.positions, task.count));
+            }
+        }
+        return true;
+    }
+
+    public boolean isLimitReached() {
+        return found.get() > maxBlocks;
+    }
+
+    /**
+     * Returns the matching positions, packed with {@link FloodFill#pack}, keyed by
+     * chunk.
+     */
+    public Map<Long, long[]> getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of matching positions.
+     */
+    public long getCount() {
+        return found.get();
+    }
+
+    /**
+     * Evaluates the part of the region inside one chunk column.
+     */
+    private final class ColumnTask {
+        private final int chunkX;
+        private final int chunkZ;
+        private long[] positions = new long[64];
+        private int count;
+
+        ColumnTask(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        void compute() {
+            int minX = Math.max(region.getMinX(), chunkX << 4);
+            int maxX = Math.min(region.getMaxX(), (chunkX << 4) + 15);
+            int minZ = Math.max(region.getMinZ(), chunkZ << 4);
+            int maxZ = Math.min(region.getMaxZ(), (chunkZ << 4) + 15);
+            double centerX = (region.getMinX() + region.getMaxX()) / 2.0;
+            double centerZ = (region.getMinZ() + region.getMaxZ()) / 2.0;
+            double[] registers = expression.newRegisters();
+            for (int y = minY; y <= maxY; y++) {
+                // Check the shared limit once per layer so a runaway job stops early
+                if (isLimitReached()) {
+                    return;
+                }
+                double ry = y - region.getMinY();
+                int layerHits = 0;
+                for (int x = minX; x <= maxX; x++) {
+                    double rx = x - centerX;
+                    for (int z = minZ; z <= maxZ; z++) {
+                        double value = expression.evaluate(rx, ry, z - centerZ, registers);
+                        if (value != 0 && !Double.isNaN(value)) {
+                            if (count == positions.length) {
+                                positions = Arrays.copyOf(positions, count * 2);
+                            }
+                            positions[count++] = FloodFill.pack(x, y, z);
+                            layerHits++;
+                        }
+                    }
+                }
+                if (layerHits > 0) {
+                    found.addAndGet(layerHits);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.stellarisedit.edit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Spatial index of recorded operations across all players.  Each operation is
+ * placed in a bucket for every chunk it touches, so an area query only looks at
+ * the buckets of the chunks inside the area instead of scanning every player's
+ * history.  Entries expire after a retention period, and oldest first once the
+ * index holds more than a fixed number of operations or its operations together
+ * change more than a fixed number of blocks.  The block cap is what bounds the
+ * index's memory, since a single operation can hold millions of blocks.  An
+ * operation larger than the cap on its own is never indexed, so it cannot push
+ * everyone else's history out.
+ *
+ * This class is not thread-safe; {@link HistoryManager} guards it with its lock.
+ */
+public class HistoryIndex {
+
+    /**
+     * An indexed operation together with the player who performed it.
+     */
+    public static final class Entry {
+        private final Operation operation;
+        private final UUID playerId;
+        private final String playerName;
+
+        Entry(Operation operation, UUID playerId, String playerName) {
+            this.operation = operation;
+            this.playerId = playerId;
+            this.playerName = playerName;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public UUID getPlayerId() {
+            return playerId;
+        }
+
+        public String getPlayerName() {
+            return playerName;
+        }
+    }
+
+    private final Map<UUID, Map<Long, List<Entry>>> buckets = new HashMap<>();
+    private final Map<Operation, Entry> entries = new HashMap<>();
+    private final Deque<Entry> insertionOrder = new ArrayDeque<>();
+    private final int maxOperations;
+    private final long maxBlocks;
+    private final long retentionMillis;
+    private long indexedBlocks;
+
+    public HistoryIndex(int maxOperations, long maxBlocks, long retentionMillis) {
+        this.maxOperations = maxOperations;
+        this.maxBlocks = maxBlocks;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Adds the operation to the index and expires old entries, evicting the
+     * oldest ones if needed to make room.  Returns false, leaving the index
+     * unchanged apart from expiry, if the operation alone changes more blocks
+     * than the index may hold.
+     */
+    public boolean add(Operation op, UUID playerId, String playerName) {
+        if (entries.containsKey(op)) {
+            return true;
+        }
+        if (op.getBlockCount() > maxBlocks) {
+            expire();
+            return false;
+        }
+        Entry entry = new Entry(op, playerId, playerName);
+        entries.put(op, entry);
+        insertionOrder.addLast(entry);
+        indexedBlocks += op.getBlockCount();
+        Map<Long, List<Entry>> worldBuckets = buckets.computeIfAbsent(op.getWorld().getUID(), k -> new HashMap<>());
+        for (long key : op.getChunkKeys()) {
+            worldBuckets.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+        expire();
+        return true;
+    }
+
+    /**
+     * Removes the operation from the index, returning its entry or null if it was
+     * not indexed.
+     */
+    public Entry remove(Operation op) {
+        Entry entry = entries.remove(op);
+        if (entry == null) {
+            return null;
+        }
+        insertionOrder.remove(entry);
+        indexedBlocks -= op.getBlockCount();
+        Map<Long, List<Entry>> worldBuckets = buckets.get(op.getWorld().getUID());
+        if (worldBuckets != null) {
+            for (long key : op.getChunkKeys()) {
+                List<Entry> bucket = worldBuckets.get(key);
+                if (bucket != null) {
+                    bucket.remove(entry);
+                    if (bucket.isEmpty()) {
+                        worldBuckets.remove(key);
+                    }
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Finds the operations in the given world touching the square area around
+     * the centre, created at or after the given time and, if playerName is not
+     * null, performed by that player.  The result is ordered newest first.
+     */
+    public List<Entry> query(UUID worldId, int centerX, int centerZ, int radius, long since, String playerName) {
+        expire();
+        Map<Long, List<Entry>> worldBuckets = buckets.get(worldId);
+        List<Entry> result = new ArrayList<>();
+        if (worldBuckets == null) {
+            return result;
+        }
+        int minX = centerX - radius;
+        int minZ = centerZ - radius;
+        int maxX = centerX + radius;
+        int maxZ = centerZ + radius;
+        Set<Entry> found = new LinkedHashSet<>();
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                List<Entry> bucket = worldBuckets.get(ChunkSnapshotCache.chunkKey(cx, cz));
+                if (bucket == null) {
+                    continue;
+                }
+                for (Entry entry : bucket) {
+                    Operation op = entry.operation;
+                    if (op.getTimestamp() >= since
+                            && (playerName == null || playerName.equalsIgnoreCase(entry.playerName))
+                            && op.intersects(minX, minZ, maxX, maxZ)) {
+                        found.add(entry);
+                    }
+                }
+            }
+        }
+        result.addAll(found);
+        result.sort((a, b) -> Long.compare(b.operation.getTimestamp(), a.operation.getTimestamp()));
+        return result;
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        while (!insertionOrder.isEmpty()
+                && (insertionOrder.size() > maxOperations || indexedBlocks > maxBlocks
+                        || insertionOrder.peekFirst().operation.getTimestamp() < cutoff)) {
+            remove(insertionOrder.peekFirst().operation);
+        }
+    }
+}
@@ -2,13 +2,18 @@ package com.stellarisedit.edit;
 
 import com.stellarisedit.StellarisEdit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages the undo/redo history for players.  Each player gets their own stacks
@@ -16,27 +21,39 @@ import java.util.UUID;
  * stack and the redo stack is cleared.  Undo pops from the undo stack and
  * pushes onto the redo stack.  Redo pops from the redo stack and pushes back
  * onto the undo stack.  The history size is capped by a configurable limit.
+ * Stacks are only touched while holding this manager's lock so that players on
+ * different region threads can edit at the same time.
+ *
+ * Every operation currently applied to the world is also kept in a
+ * {@link HistoryIndex} shared by all players, which lets staff roll back an area
+ * regardless of who edited it.
  */
 public class HistoryManager {
     private final StellarisEdit plugin;
-    private final Map<UUID, Deque<Operation>> undoMap = new HashMap<>();
-    private final Map<UUID, Deque<Operation>> redoMap = new HashMap<>();
+    private final Map<UUID, Deque<Operation>> undoMap = new ConcurrentHashMap<>();
+    private final Map<UUID, Deque<Operation>> redoMap = new ConcurrentHashMap<>();
     private final int maxHistory;
+    private final HistoryIndex index;
 
     public HistoryManager(StellarisEdit plugin) {
         this.plugin = plugin;
         this.maxHistory = plugin.getConfig().getInt("undo-limit", 20);
+        this.index = new HistoryIndex(plugin.getConfig().getInt("rollback.max-operations", 2000),
+                plugin.getConfig().getLong("rollback.max-blocks", 1000000L),
+                plugin.getConfig().getLong("rollback.retention-minutes", 1440L) * 60000L);
     }
 
     /**
      * Records a new operation for the given player.  Clears the redo stack.
      */
-    public void recordOperation(Player player, Operation op) {
+    public synchronized void recordOperation(Player player, Operation op) {
         UUID uuid = player.getUniqueId();
         Deque<Operation> undoStack = undoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>());
         Deque<Operation> redoStack = redoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>());
         // Add new operation
         undoStack.push(op);
+        index.add(op, uuid, player.getName());
+        plugin.getDistributionManager().invalidate(op);
         // Trim if exceeding max
         while (undoStack.size() > maxHistory) {
             undoStack.removeLast();
@@ -50,15 +67,21 @@ public class HistoryManager {
      */
     public void undo(Player player) {
         UUID uuid = player.getUniqueId();
-        Deque<Operation> undoStack = undoMap.get(uuid);
-        if (undoStack == null || undoStack.isEmpty()) {
-            player.sendMessage(ChatColor.RED + "Nothing to undo.");
-            return;
+        Operation op;
+        synchronized (this) {
+            Deque<Operation> undoStack = undoMap.get(uuid);
+            if (undoStack == null || undoStack.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "Nothing to undo.");
+                return;
+            }
+            op = undoStack.pop();
+            index.remove(op);
+            redoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>()).push(op);
         }
-        Operation op = undoStack.pop();
-        op.revert();
-        redoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>()).push(op);
-        player.sendMessage(ChatColor.YELLOW + "Undo complete.");
+        plugin.getEditExecutor().revert(op, () -> {
+            plugin.getDistributionManager().invalidate(op);
+            player.sendMessage(ChatColor.YELLOW + "Undo complete.");
+        });
     }
 
     /**
@@ -66,14 +89,96 @@ public class HistoryManager {
      */
     public void redo(Player player) {
         UUID uuid = player.getUniqueId();
-        Deque<Operation> redoStack = redoMap.get(uuid);
-        if (redoStack == null || redoStack.isEmpty()) {
-            player.sendMessage(ChatColor.RED + "Nothing to redo.");
+        Operation op;
+        synchronized (this) {
+            Deque<Operation> redoStack = redoMap.get(uuid);
+            if (redoStack == null || redoStack.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "Nothing to redo.");
+                return;
+            }
+            op = redoStack.pop();
+            index.add(op, uuid, player.getName());
+            undoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>()).push(op);
+        }
+        plugin.getEditExecutor().apply(op, () -> {
+            plugin.getDistributionManager().invalidate(op);
+            player.sendMessage(ChatColor.YELLOW + "Redo complete.");
+        });
+    }
+
+    /**
+     * Reverts, newest first, the blocks within the given radius of the player
+     * changed by indexed operations in the player's world created at or after the
+     * given time and, if targetName is not null, performed by that player.  Blocks
+     * outside the square are left alone.  The combined revert is recorded as a
+     * single operation in the acting player's history.  Operations that lie
+     * entirely inside the square are removed from their owners' undo stacks and
+     * the index; partly reverted ones are kept.
+     */
+    public void rollback(Player player, String targetName, long since, int radius) {
+        Location center = player.getLocation();
+        int minX = center.getBlockX() - radius;
+        int minZ = center.getBlockZ() - radius;
+        int maxX = center.getBlockX() + radius;
+        int maxZ = center.getBlockZ() + radius;
+        List<HistoryIndex.Entry> matches;
+        synchronized (this) {
+            matches = index.query(player.getWorld().getUID(), center.getBlockX(), center.getBlockZ(), radius, since, targetName);
+            for (HistoryIndex.Entry entry : matches) {
+                if (!entry.getOperation().isWithin(minX, minZ, maxX, maxZ)) {
+                    continue;
+                }
+                index.remove(entry.getOperation());
+                Deque<Operation> undoStack = undoMap.get(entry.getPlayerId());
+                if (undoStack != null) {
+                    undoStack.remove(entry.getOperation());
+                }
+            }
+        }
+        if (matches.isEmpty()) {
+            player.sendMessage(ChatColor.YELLOW + "No operations found to roll back.");
             return;
         }
-        Operation op = redoStack.pop();
-        op.apply();
-        undoMap.computeIfAbsent(uuid, k -> new ArrayDeque<>()).push(op);
-        player.sendMessage(ChatColor.YELLOW + "Redo complete.");
+        // Walking newest to oldest, older originals overwrite newer ones, leaving
+        // each location in the state it had before the earliest matching edit.
+        // Targets are kept per chunk, packed with FloodFill.pack, so each chunk
+        // task only reads its own
+        Map<Long, Map<Long, BlockData>> targets = new HashMap<>();
+        for (HistoryIndex.Entry entry : matches) {
+            Operation op = entry.getOperation();
+            for (long key : op.getChunkKeys()) {
+                int chunkMinX = ChunkSnapshotCache.chunkX(key) << 4;
+                int chunkMinZ = ChunkSnapshotCache.chunkZ(key) << 4;
+                if (chunkMinX > maxX || chunkMinX + 15 < minX || chunkMinZ > maxZ || chunkMinZ + 15 < minZ) {
+                    continue;
+                }
+                Map<Long, BlockData> chunkTargets = targets.computeIfAbsent(key, k -> new HashMap<>());
+                op.forEachChange(key, (x, y, z, original, result) -> {
+                    if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                        chunkTargets.put(FloodFill.pack(x, y, z), original);
+                    }
+                });
+            }
+        }
+        World world = player.getWorld();
+        EditExecutor executor = plugin.getEditExecutor();
+        executor.buildOperation(world, targets.keySet(), edit -> {
+            for (Map.Entry<Long, BlockData> target : targets.get(edit.getChunkKey()).entrySet()) {
+                long packed = target.getKey();
+                int x = FloodFill.unpackX(packed);
+                int y = FloodFill.unpackY(packed);
+                int z = FloodFill.unpackZ(packed);
+                BlockData current = edit.getBlockData(x, y, z);
+                if (current != null) {
+                    edit.set(x, y, z, current, target.getValue());
+                }
+            }
+        }, rollback -> {
+            executor.apply(rollback, () -> {
+                recordOperation(player, rollback);
+                player.sendMessage(ChatColor.GREEN + "Rolled back " + matches.size() + " operations ("
+                        + rollback.getBlockCount() + " blocks).");
+            });
+        });
     }
 }
@@ -2,39 +2,89 @@ package com.stellarisedit.edit;
 
 import org.bukkit.Location;
 import org.bukkit.World;
-import org.bukkit.block.Block;
 import org.bukkit.block.data.BlockData;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a reversible world editing operation.  Operations capture the original
  * block states before modification and the new block states after modification.
  * Calling undo() restores the original blocks, while redo() re-applies the new
  * states.  Operations are recorded in a player's history to support undo/redo
- * functionality.
+ * functionality.  Changes are stored per chunk (see {@link ChunkChanges}) so
+ * that an operation can be applied one chunk at a time on the thread owning each
+ * chunk.
  */
 public class Operation {
-    private final Map<Location, BlockData> before;
-    private final Map<Location, BlockData> after;
     private final World world;
+    private final Map<Long, ChunkChanges> chunks;
+    private final long timestamp = System.currentTimeMillis();
+    private final int blockCount;
+    private int minX = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
 
+    /**
+     * Creates an operation from the original and new state of every location.
+     * Both maps must hold the same locations.
+     */
     public Operation(World world, Map<Location, BlockData> before, Map<Location, BlockData> after) {
+        this(world, group(world, before, after));
+    }
+
+    /**
+     * Creates an operation owning the given per-chunk changes, keyed by chunk.
+     * The map is not copied.
+     */
+    Operation(World world, Map<Long, ChunkChanges> chunks) {
         this.world = world;
-        this.before = new HashMap<>(before);
-        this.after = new HashMap<>(after);
+        this.chunks = chunks;
+        int count = 0;
+        for (ChunkChanges changes : chunks.values()) {
+            for (int i = 0; i < changes.size(); i++) {
+                minX = Math.min(minX, changes.getX(i));
+                minZ = Math.min(minZ, changes.getZ(i));
+                maxX = Math.max(maxX, changes.getX(i));
+                maxZ = Math.max(maxZ, changes.getZ(i));
+            }
+            count += changes.size();
+        }
+        this.blockCount = count;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the number of blocks changed by this operation.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public boolean isEmpty() {
+        return blockCount == 0;
+    }
+
+    /**
+     * Returns the keys (see {@link ChunkSnapshotCache#chunkKey(int, int)}) of the
+     * chunks touched by this operation.
+     */
+    public Set<Long> getChunkKeys() {
+        return Collections.unmodifiableSet(chunks.keySet());
     }
 
     /**
      * Applies the new block states represented by this operation.
      */
     public void apply() {
-        for (Map.Entry<Location, BlockData> entry : after.entrySet()) {
-            Location loc = entry.getKey();
-            BlockData data = entry.getValue();
-            Block block = world.getBlockAt(loc);
-            block.setBlockData(data, false);
+        for (long key : chunks.keySet()) {
+            applyChunk(key);
         }
     }
 
@@ -42,11 +92,80 @@ public class Operation {
      * Reverts the blocks in this operation back to their original states.
      */
     public void revert() {
+        for (long key : chunks.keySet()) {
+            revertChunk(key);
+        }
+    }
+
+    /**
+     * Applies the new block states that fall inside the given chunk.  Must be
+     * called on the thread owning that chunk.
+     */
+    public void applyChunk(long chunkKey) {
+        forEachChange(chunkKey, (x, y, z, original, result) ->
+                world.getBlockAt(x, y, z).setBlockData(result, false));
+    }
+
+    /**
+     * Reverts the blocks that fall inside the given chunk.  Must be called on the
+     * thread owning that chunk.
+     */
+    public void revertChunk(long chunkKey) {
+        forEachChange(chunkKey, (x, y, z, original, result) ->
+                world.getBlockAt(x, y, z).setBlockData(original, false));
+    }
+
+    /**
+     * Calls the visitor for every change of this operation inside the given chunk.
+     */
+    public void forEachChange(long chunkKey, ChangeVisitor visitor) {
+        ChunkChanges changes = chunks.get(chunkKey);
+        if (changes != null) {
+            changes.forEach(visitor);
+        }
+    }
+
+    /**
+     * Returns the time this operation was created, in epoch milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns true if the horizontal bounding box of this operation intersects the
+     * given square area.
+     */
+    public boolean intersects(int areaMinX, int areaMinZ, int areaMaxX, int areaMaxZ) {
+        return minX <= areaMaxX && maxX >= areaMinX && minZ <= areaMaxZ && maxZ >= areaMinZ;
+    }
+
+    /**
+     * Returns true if every block of this operation lies inside the given square
+     * area.
+     */
+    public boolean isWithin(int areaMinX, int areaMinZ, int areaMaxX, int areaMaxZ) {
+        return minX >= areaMinX && maxX <= areaMaxX && minZ >= areaMinZ && maxZ <= areaMaxZ;
+    }
+
+    private static Map<Long, ChunkChanges> group(World world, Map<Location, BlockData> before, Map<Location, BlockData> after) {
+        Map<Long, ChunkChanges> chunks = new HashMap<>();
+        int minY = world.getMinHeight();
         for (Map.Entry<Location, BlockData> entry : before.entrySet()) {
             Location loc = entry.getKey();
-            BlockData data = entry.getValue();
-            Block block = world.getBlockAt(loc);
-            block.setBlockData(data, false);
+            int x = loc.getBlockX();
+            int z = loc.getBlockZ();
+            chunks.computeIfAbsent(ChunkSnapshotCache.chunkKey(x >> 4, z >> 4), k -> new ChunkChanges(x >> 4, z >> 4, minY))
+                    .add(x, loc.getBlockY(), z, entry.getValue(), after.get(loc));
         }
+        return chunks;
+    }
+
+    /**
+     * Receives the changes visited by {@link #forEachChange}.
+     */
+    @FunctionalInterface
+    public interface ChangeVisitor {
+        void visit(int x, int y, int z, BlockData original, BlockData result);
     }
 }
@@ -0,0 +1,201 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.StellarisEdit;
+import com.stellarisedit.scheduler.EditScheduler;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manages the preview mode.  While a player has preview mode enabled, edits are
+ * not written to the world or recorded in history; instead the resulting blocks
+ * are sent to that player only as fake block changes.  Changes are sent one chunk
+ * per batch, nearest chunks first, with a configurable number of chunks per tick.
+ * The pending edit is applied with {@link #commit(Player)} or the fake blocks are
+ * replaced by the real ones again with {@link #discard(Player)}.
+ */
+public class PreviewManager implements Listener {
+    private final StellarisEdit plugin;
+    private final Set<UUID> enabled = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Preview> previews = new ConcurrentHashMap<>();
+    private final int chunksPerTick;
+
+    public PreviewManager(StellarisEdit plugin) {
+        this.plugin = plugin;
+        this.chunksPerTick = Math.max(1, plugin.getConfig().getInt("preview.chunks-per-tick", 4));
+    }
+
+    public boolean isEnabled(Player player) {
+        return enabled.contains(player.getUniqueId());
+    }
+
+    /**
+     * Turns preview mode on or off.  Turning it off discards any pending preview.
+     */
+    public void setEnabled(Player player, boolean enable) {
+        if (enable) {
+            enabled.add(player.getUniqueId());
+            player.sendMessage(ChatColor.AQUA + "Preview mode enabled. Edits are shown only to you until /se commit.");
+            return;
+        }
+        enabled.remove(player.getUniqueId());
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview != null) {
+            preview.restore();
+        }
+        player.sendMessage(ChatColor.AQUA + "Preview mode disabled.");
+    }
+
+    /**
+     * Shows the operation to the player as a preview, replacing any earlier
+     * preview.  The message is sent once the preview is committed.
+     */
+    public void show(Player player, Operation op, String commitMessage) {
+        Preview previous = previews.remove(player.getUniqueId());
+        if (previous != null) {
+            previous.restore();
+        }
+        Preview preview = new Preview(player, op, commitMessage);
+        previews.put(player.getUniqueId(), preview);
+        plugin.getEditExecutor().getScheduler().runGlobal(preview::tick);
+        player.sendMessage(ChatColor.AQUA + "Previewing " + op.getBlockCount() + " blocks. Use "
+                + ChatColor.YELLOW + "/se commit" + ChatColor.AQUA + " or " + ChatColor.YELLOW + "/se discard" + ChatColor.AQUA + ".");
+    }
+
+    /**
+     * Applies the pending preview to the world and records it in history.
+     */
+    public void commit(Player player) {
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview == null) {
+            player.sendMessage(ChatColor.RED + "You have no pending preview.");
+            return;
+        }
+        preview.stop();
+        Operation op = preview.operation;
+        plugin.getEditExecutor().apply(op, () -> {
+            plugin.getHistoryManager().recordOperation(player, op);
+            player.sendMessage(preview.commitMessage);
+        });
+    }
+
+    /**
+     * Drops the pending preview and shows the player the real blocks again.
+     */
+    public void discard(Player player) {
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview == null) {
+            player.sendMessage(ChatColor.RED + "You have no pending preview.");
+            return;
+        }
+        preview.restore();
+        player.sendMessage(ChatColor.YELLOW + "Preview discarded.");
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        enabled.remove(uuid);
+        Preview preview = previews.remove(uuid);
+        if (preview != null) {
+            preview.stop();
+        }
+    }
+
+    /**
+     * A pending preview and the state of sending it to the player.  The queue of
+     * chunks still to send is only touched from the global thread.
+     */
+    private final class Preview {
+        private final Player player;
+        private final Operation operation;
+        private final String commitMessage;
+        private final Deque<Long> pending;
+        private final Set<Long> sent = ConcurrentHashMap.newKeySet();
+        private volatile boolean stopped;
+
+        Preview(Player player, Operation operation, String commitMessage) {
+            this.player = player;
+            this.operation = operation;
+            this.commitMessage = commitMessage;
+            Location location = player.getLocation();
+            int px = location.getBlockX() >> 4;
+            int pz = location.getBlockZ() >> 4;
+            List<Long> keys = new ArrayList<>(operation.getChunkKeys());
+            keys.sort(Comparator.comparingLong(key -> {
+                long dx = ChunkSnapshotCache.chunkX(key) - px;
+                long dz = ChunkSnapshotCache.chunkZ(key) - pz;
+                return dx * dx + dz * dz;
+            }));
+            this.pending = new ArrayDeque<>(keys);
+        }
+
+        void tick() {
+            if (stopped || !player.isOnline()) {
+                return;
+            }
+            for (int i = 0; i < chunksPerTick && !pending.isEmpty(); i++) {
+                long key = pending.poll();
+                sent.add(key);
+                send(key, false);
+            }
+            if (!pending.isEmpty()) {
+                plugin.getEditExecutor().getScheduler().runGlobalLater(this::tick, 1L);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        /**
+         * Stops sending and replaces every fake block already sent with the real one.
+         */
+        void restore() {
+            stop();
+            for (long key : sent) {
+                send(key, true);
+            }
+        }
+
+        private void send(long key, boolean real) {
+            World world = operation.getWorld();
+            EditScheduler scheduler = plugin.getEditExecutor().getScheduler();
+            scheduler.runAtChunk(world, ChunkSnapshotCache.chunkX(key), ChunkSnapshotCache.chunkZ(key), () -> {
+                if (!player.isOnline() || (!real && stopped)) {
+                    return;
+                }
+                List<BlockState> states = new ArrayList<>();
+                operation.forEachChange(key, (x, y, z, original, result) -> {
+                    BlockState state = world.getBlockAt(x, y, z).getState();
+                    if (!real) {
+                        try {
+                            state.setBlockData(result);
+                        } catch (IllegalArgumentException ex) {
+                            // Block entity states cannot change type; send this one on its own
+                            player.sendBlockChange(new Location(world, x, y, z), result);
+                            return;
+                        }
+                    }
+                    states.add(state);
+                });
+                player.sendBlockChanges(states);
+            });
+        }
+    }
+}
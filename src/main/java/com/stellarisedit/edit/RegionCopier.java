@@ -0,0 +1,225 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies a region to one or more offsets along a direction, as used by stack and
+ * move.  The source is read once, chunk by chunk, into a {@link BlockBuffer}
+ * with {@link #capture}; the copies are then written one chunk column at a time
+ * with {@link #build}, reading the before-state of each target block from the
+ * live chunk in the same pass that writes it.  Because every copy is taken
+ * from the buffer rather than the world, a move whose source and destination
+ * overlap still copies the original blocks, and only the part of the source
+ * that the destination does not cover is cleared.  Each copier builds one
+ * operation.
+ */
+public class RegionCopier {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+    private final int stepX;
+    private final int stepY;
+    private final int stepZ;
+    private final int count;
+    private final boolean clearSource;
+    private BlockBuffer buffer;
+    private final AtomicInteger capturedChunks = new AtomicInteger();
+
+    /**
+     * Creates a copier writing count copies of the region, the k-th copy shifted
+     * k * distance blocks in the given direction.  If clearSource is set, the
+     * source blocks not covered by a copy are replaced with air.  The region's
+     * height is clamped to the world.
+     */
+    public RegionCopier(World world, Region region, BlockFace direction, int distance, int count, boolean clearSource) {
+        this.minX = region.getMinX();
+        this.minY = Math.max(region.getMinY(), world.getMinHeight());
+        this.minZ = region.getMinZ();
+        this.maxX = region.getMaxX();
+        this.maxY = Math.min(region.getMaxY(), world.getMaxHeight() - 1);
+        this.maxZ = region.getMaxZ();
+        this.stepX = direction.getModX() * distance;
+        this.stepY = direction.getModY() * distance;
+        this.stepZ = direction.getModZ() * distance;
+        this.count = count;
+        this.clearSource = clearSource;
+    }
+
+    /**
+     * Returns the number of blocks in the source after clamping, or 0 if the
+     * region lies outside the world height.
+     */
+    public long getVolume() {
+        if (minY > maxY) {
+            return 0;
+        }
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    /**
+     * Returns the number of blocks the operation may write, counting the cleared
+     * source.
+     */
+    public long getWriteVolume() {
+        return getVolume() * (clearSource ? count + 1 : count);
+    }
+
+    /**
+     * Returns the keys of the chunk columns holding the source.
+     */
+    public Set<Long> getSourceChunkKeys() {
+        Set<Long> keys = new TreeSet<>();
+        addChunkKeys(keys, 0);
+        return keys;
+    }
+
+    /**
+     * Returns the keys of every chunk column written, in ascending order.
+     */
+    public Set<Long> getChunkKeys() {
+        Set<Long> keys = new TreeSet<>();
+        for (int k = clearSource ? 0 : 1; k <= count; k++) {
+            addChunkKeys(keys, k);
+        }
+        return keys;
+    }
+
+    private void addChunkKeys(Set<Long> keys, int k) {
+        int dx = stepX * k;
+        int dz = stepZ * k;
+        for (int cx = (minX + dx) >> 4; cx <= (maxX + dx) >> 4; cx++) {
+            for (int cz = (minZ + dz) >> 4; cz <= (maxZ + dz) >> 4; cz++) {
+                keys.add(ChunkSnapshotCache.chunkKey(cx, cz));
+            }
+        }
+    }
+
+    /**
+     * Reads the part of the source inside the chunk into the buffer.  Meant to be
+     * passed to {@link EditExecutor#readChunks} with {@link #getSourceChunkKeys()};
+     * may be called for several chunks at once.
+     */
+    public void capture(ChunkReader reader) {
+        int fromX = Math.max(minX, reader.getMinX());
+        int toX = Math.min(maxX, reader.getMaxX());
+        int fromZ = Math.max(minZ, reader.getMinZ());
+        int toZ = Math.min(maxZ, reader.getMaxZ());
+        BlockBuffer buffer = buffer();
+        BlockData[] column = new BlockData[maxY - minY + 1];
+        for (int x = fromX; x <= toX; x++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                for (int y = minY; y <= maxY; y++) {
+                    column[y - minY] = reader.getBlockData(x, y, z);
+                }
+                // The buffer's palette is shared by every chunk
+                synchronized (buffer) {
+                    for (int y = minY; y <= maxY; y++) {
+                        buffer.set(x - minX, y - minY, z - minZ, column[y - minY]);
+                    }
+                }
+            }
+        }
+        capturedChunks.incrementAndGet();
+    }
+
+    /**
+     * Returns true if every source chunk has been captured, which fails only
+     * when part of the source has not been generated.
+     */
+    public boolean isCaptured() {
+        return capturedChunks.get() == getSourceChunkKeys().size();
+    }
+
+    /**
+     * Writes every copy that falls inside the chunk and, for a move, clears the
+     * uncovered source there.  Meant to be passed to
+     * {@link EditExecutor#buildOperation} or {@link EditExecutor#buildAndApply}
+     * with {@link #getChunkKeys()} once the source is captured.  Every position
+     * is written at most once, so writing as it goes never changes a block this
+     * method reads afterwards.  Targets outside the world are skipped.
+     */
+    public void build(ChunkEdit edit) {
+        if (!isCaptured()) {
+            throw new IllegalStateException("The source has not been captured");
+        }
+        BlockBuffer buffer = buffer();
+        BlockData air = Material.AIR.createBlockData();
+        int chunkMinX = edit.getMinX();
+        int chunkMinZ = edit.getMinZ();
+        for (int k = 1; k <= count; k++) {
+            int dx = stepX * k;
+            int dy = stepY * k;
+            int dz = stepZ * k;
+            int fromX = Math.max(minX + dx, chunkMinX);
+            int toX = Math.min(maxX + dx, chunkMinX + 15);
+            int fromZ = Math.max(minZ + dz, chunkMinZ);
+            int toZ = Math.min(maxZ + dz, chunkMinZ + 15);
+            for (int x = fromX; x <= toX; x++) {
+                for (int y = minY + dy; y <= maxY + dy; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        write(edit, x, y, z, buffer.get(x - dx - minX, y - dy - minY, z - dz - minZ));
+                    }
+                }
+            }
+        }
+        if (!clearSource) {
+            return;
+        }
+        int fromX = Math.max(minX, chunkMinX);
+        int toX = Math.min(maxX, chunkMinX + 15);
+        int fromZ = Math.max(minZ, chunkMinZ);
+        int toZ = Math.min(maxZ, chunkMinZ + 15);
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    if (!isCopyTarget(x, y, z)) {
+                        write(edit, x, y, z, air);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer holding the source, allocating it on first use so that
+     * copies rejected for their size never allocate it.
+     */
+    private synchronized BlockBuffer buffer() {
+        if (buffer == null) {
+            buffer = new BlockBuffer(maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns whether the position is inside one of the copies.
+     */
+    private boolean isCopyTarget(int x, int y, int z) {
+        for (int k = 1; k <= count; k++) {
+            int sx = x - stepX * k;
+            int sy = y - stepY * k;
+            int sz = z - stepZ * k;
+            if (sx >= minX && sx <= maxX && sy >= minY && sy <= maxY && sz >= minZ && sz <= maxZ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(ChunkEdit edit, int x, int y, int z, BlockData data) {
+        BlockData current = edit.getBlockData(x, y, z);
+        if (current != null && !current.equals(data)) {
+            edit.set(x, y, z, current, data);
+        }
+    }
+}
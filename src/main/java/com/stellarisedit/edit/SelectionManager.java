@@ -3,54 +3,44 @@ package com.stellarisedit.edit;
 import com.stellarisedit.StellarisEdit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
-import org.bukkit.NamespacedKey;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
-import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.util.Vector;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handles selection logic for players.  Players can set two corners of a cuboid
  * region using the selection wand (a customised wooden axe).  The manager
- * persists each player's pos1 and pos2 vectors.  It also listens for
- * interaction events to update selections when the wand is used.
+ * persists each player's pos1 and pos2 vectors.  The wand is registered as a
+ * shared tool with the {@link ToolManager}, which calls back into this manager
+ * when the wand is used.
  */
-public class SelectionManager implements Listener {
+public class SelectionManager {
     private static final Material WAND_MATERIAL = Material.WOODEN_AXE;
     private static final String WAND_NAME = ChatColor.GREEN + "Stellaris Wand";
-    private static final NamespacedKey WAND_KEY = new NamespacedKey("stellarisedit", "wand");
+    static final String WAND_ID = "wand";
 
     private final StellarisEdit plugin;
-    private final Map<UUID, Vector> pos1Map = new HashMap<>();
-    private final Map<UUID, Vector> pos2Map = new HashMap<>();
+    private final Map<UUID, Vector> pos1Map = new ConcurrentHashMap<>();
+    private final Map<UUID, Vector> pos2Map = new ConcurrentHashMap<>();
 
     public SelectionManager(StellarisEdit plugin) {
         this.plugin = plugin;
+        plugin.getToolManager().registerShared(WAND_ID, WAND_MATERIAL, this::useWand);
     }
 
     /**
      * Gives the selection wand to the player.  The wand is a wooden axe with a custom
-     * name and a persistent data flag so we can detect it reliably.
+     * name and the wand's tool id so we can detect it reliably.
      */
     public void giveWand(Player player) {
         ItemStack wand = new ItemStack(WAND_MATERIAL);
-        ItemMeta meta = wand.getItemMeta();
-        if (meta != null) {
-            meta.setDisplayName(WAND_NAME);
-            // set persistent data flag
-            meta.getPersistentDataContainer().set(WAND_KEY, PersistentDataType.BYTE, (byte) 1);
-            wand.setItemMeta(meta);
-        }
+        plugin.getToolManager().tag(wand, WAND_ID, WAND_NAME);
         player.getInventory().addItem(wand);
         player.sendMessage(ChatColor.AQUA + "You have been given the Stellaris selection wand.");
     }
@@ -99,30 +89,24 @@ public class SelectionManager implements Listener {
     }
 
     /**
-     * Event handler for wand usage.  When the player left or right clicks a block
-     * with the wand, set pos1 or pos2 respectively.  We cancel the event to
-     * prevent the default block breaking/placing behaviour.
+     * Handles wand usage.  When the player left or right clicks a block with the
+     * wand, set pos1 or pos2 respectively.  The click is consumed to prevent the
+     * default block breaking/placing behaviour.
      */
-    @EventHandler
-    public void onPlayerInteract(PlayerInteractEvent event) {
-        if (event.getItem() == null || event.getItem().getType() != WAND_MATERIAL) {
-            return;
+    private boolean useWand(Player player, Action action, Block clicked) {
+        if (clicked == null) {
+            return false;
         }
-        ItemMeta meta = event.getItem().getItemMeta();
-        if (meta == null || !meta.getPersistentDataContainer().has(WAND_KEY, PersistentDataType.BYTE)) {
-            return;
+        Vector pos = clicked.getLocation().toVector();
+        if (action == Action.LEFT_CLICK_BLOCK) {
+            setPos1(player, pos);
+            return true;
         }
-        Player player = event.getPlayer();
-        if (event.getClickedBlock() != null && (event.getAction() == Action.LEFT_CLICK_BLOCK || event.getAction() == Action.RIGHT_CLICK_BLOCK)) {
-            Block block = event.getClickedBlock();
-            Vector pos = block.getLocation().toVector();
-            if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
-                setPos1(player, pos);
-            } else if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-                setPos2(player, pos);
-            }
-            event.setCancelled(true);
+        if (action == Action.RIGHT_CLICK_BLOCK) {
+            setPos2(player, pos);
+            return true;
         }
+        return false;
     }
 
     private String format(Vector v) {
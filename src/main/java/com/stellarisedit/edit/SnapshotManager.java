@@ -0,0 +1,453 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.StellarisEdit;
+import org.bukkit.ChatColor;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manages named region snapshots stored on local disk.  A snapshot is a manifest
+ * listing the chunk sections it covers; the block data of each section is kept in
+ * a separate compressed blob named after the SHA-256 hash of its contents.  Equal
+ * sections, whether within one snapshot or across snapshots, therefore share a
+ * single blob and repeated snapshots of a mostly unchanged area only write the
+ * sections that changed.
+ *
+ * Chunk snapshots are captured on the threads owning the chunks, a few chunks per
+ * tick ({@code snapshots.chunks-per-tick}) since capturing may load them.
+ * Hashing and all disk access happen on a single background thread so that
+ * snapshot files are never read and written concurrently.  Restoring goes through a regular
+ * {@link Operation} that is recorded in the player's history and can be undone.
+ */
+public class SnapshotManager {
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-z0-9_-]{1,32}");
+    private static final String MANIFEST_SUFFIX = ".snapshot";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final StellarisEdit plugin;
+    private final File snapshotDir;
+    private final File blobDir;
+    private final int maxChunks;
+    private final int chunksPerTick;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "StellarisEdit-Snapshots");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SnapshotManager(StellarisEdit plugin) {
+        this.plugin = plugin;
+        this.snapshotDir = new File(plugin.getDataFolder(), "snapshots");
+        this.blobDir = new File(snapshotDir, "blobs");
+        this.maxChunks = plugin.getConfig().getInt("snapshots.max-chunks", 512);
+        this.chunksPerTick = Math.max(1, plugin.getConfig().getInt("snapshots.chunks-per-tick", 16));
+    }
+
+    /**
+     * Stops the background thread and waits, up to a timeout, for queued snapshot
+     * work to finish.  Called while the plugin is disabling, so no messages are
+     * sent for work that completes now.
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Snapshot writes did not finish within " + SHUTDOWN_TIMEOUT_SECONDS
+                        + " seconds; unfinished snapshots were abandoned.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates (or overwrites) the named snapshot of the player's current selection.
+     */
+    public void create(Player player, String rawName) {
+        String name = validateName(player, rawName);
+        if (name == null) {
+            return;
+        }
+        Region region = plugin.getSelectionManager().getSelection(player);
+        if (region == null) {
+            player.sendMessage(ChatColor.RED + "You must set pos1 and pos2 first.");
+            return;
+        }
+        World world = player.getWorld();
+        int minY = Math.max(region.getMinY(), world.getMinHeight());
+        int maxY = Math.min(region.getMaxY(), world.getMaxHeight() - 1);
+        if (minY > maxY) {
+            player.sendMessage(ChatColor.RED + "Your selection is outside the world height.");
+            return;
+        }
+        long chunkCount = (long) ((region.getMaxX() >> 4) - (region.getMinX() >> 4) + 1)
+                * ((region.getMaxZ() >> 4) - (region.getMinZ() >> 4) + 1);
+        if (chunkCount > maxChunks) {
+            player.sendMessage(ChatColor.RED + "Selection spans " + chunkCount + " chunks; the limit is " + maxChunks + ".");
+            return;
+        }
+        UUID worldId = world.getUID();
+        player.sendMessage(ChatColor.GRAY + "Creating snapshot " + name + "...");
+        // Capture everything we need from the world before going off-thread
+        plugin.getEditExecutor().captureSnapshots(world, region.getMinX() >> 4, region.getMinZ() >> 4,
+                region.getMaxX() >> 4, region.getMaxZ() >> 4, chunksPerTick, cache -> ioExecutor.execute(() -> {
+            try {
+                List<String> lines = new ArrayList<>();
+                lines.add("world=" + worldId);
+                lines.add("min=" + region.getMinX() + "," + minY + "," + region.getMinZ());
+                lines.add("max=" + region.getMaxX() + "," + maxY + "," + region.getMaxZ());
+                lines.add("created=" + System.currentTimeMillis());
+                int sections = 0;
+                int written = 0;
+                long bytes = 0;
+                for (ChunkSnapshot chunk : cache.getSnapshots()) {
+                    int x0 = Math.max(region.getMinX(), chunk.getX() << 4);
+                    int x1 = Math.min(region.getMaxX(), (chunk.getX() << 4) + 15);
+                    int z0 = Math.max(region.getMinZ(), chunk.getZ() << 4);
+                    int z1 = Math.min(region.getMaxZ(), (chunk.getZ() << 4) + 15);
+                    for (int sy = minY >> 4; sy <= maxY >> 4; sy++) {
+                        int y0 = Math.max(minY, sy << 4);
+                        int y1 = Math.min(maxY, (sy << 4) + 15);
+                        byte[] encoded = encodeSection(chunk, x0, x1, y0, y1, z0, z1);
+                        String hash = sha256(encoded);
+                        long size = writeBlob(hash, encoded);
+                        if (size > 0) {
+                            written++;
+                            bytes += size;
+                        }
+                        sections++;
+                        lines.add("section " + x0 + " " + y0 + " " + z0 + " " + hash);
+                    }
+                }
+                File manifest = manifestFile(name);
+                boolean overwritten = manifest.isFile();
+                writeAtomically(manifest.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+                if (overwritten) {
+                    // Sections only the old version referenced are now orphaned
+                    pruneBlobs();
+                }
+                String summary = ChatColor.GREEN + "Snapshot " + name + " created: " + sections + " sections, "
+                        + written + " new (" + (bytes / 1024) + " KiB written).";
+                runGlobal(() -> player.sendMessage(summary));
+            } catch (IOException | RuntimeException ex) {
+                fail(player, "Failed to create snapshot " + name, ex);
+            }
+        }));
+    }
+
+    /**
+     * Restores the named snapshot into its original world.  Only blocks that differ
+     * from the stored state are written, and the change is recorded as a single
+     * undoable operation for the player.
+     */
+    public void restore(Player player, String rawName) {
+        String name = validateName(player, rawName);
+        if (name == null) {
+            return;
+        }
+        File manifest = manifestFile(name);
+        player.sendMessage(ChatColor.GRAY + "Loading snapshot " + name + "...");
+        ioExecutor.execute(() -> {
+            try {
+                if (!manifest.isFile()) {
+                    runGlobal(() ->
+                            player.sendMessage(ChatColor.RED + "No snapshot named " + name + "."));
+                    return;
+                }
+                UUID worldId = null;
+                List<int[]> origins = new ArrayList<>();
+                List<BlockBuffer> buffers = new ArrayList<>();
+                Map<String, BlockBuffer> loaded = new HashMap<>();
+                for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.startsWith("world=")) {
+                        worldId = UUID.fromString(line.substring(6));
+                    } else if (line.startsWith("section ")) {
+                        String[] parts = line.split(" ");
+                        origins.add(new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3])});
+                        BlockBuffer buffer = loaded.get(parts[4]);
+                        if (buffer == null) {
+                            buffer = readBlob(parts[4]);
+                            loaded.put(parts[4], buffer);
+                        }
+                        buffers.add(buffer);
+                    }
+                }
+                UUID snapshotWorld = worldId;
+                runGlobal(() -> applyRestore(player, name, snapshotWorld, origins, buffers));
+            } catch (IOException | RuntimeException ex) {
+                fail(player, "Failed to load snapshot " + name, ex);
+            }
+        });
+    }
+
+    /**
+     * Lists the stored snapshots.
+     */
+    public void list(Player player) {
+        ioExecutor.execute(() -> {
+            List<String> names = new ArrayList<>();
+            for (File file : manifestFiles()) {
+                names.add(file.getName().substring(0, file.getName().length() - MANIFEST_SUFFIX.length()));
+            }
+            names.sort(null);
+            String message = names.isEmpty()
+                    ? ChatColor.YELLOW + "No snapshots stored."
+                    : ChatColor.AQUA + "Snapshots: " + ChatColor.WHITE + String.join(", ", names);
+            runGlobal(() -> player.sendMessage(message));
+        });
+    }
+
+    /**
+     * Deletes the named snapshot and any blobs no longer referenced by another
+     * snapshot.
+     */
+    public void delete(Player player, String rawName) {
+        String name = validateName(player, rawName);
+        if (name == null) {
+            return;
+        }
+        ioExecutor.execute(() -> {
+            try {
+                if (!Files.deleteIfExists(manifestFile(name).toPath())) {
+                    runGlobal(() ->
+                            player.sendMessage(ChatColor.RED + "No snapshot named " + name + "."));
+                    return;
+                }
+                int removed = pruneBlobs();
+                runGlobal(() ->
+                        player.sendMessage(ChatColor.GREEN + "Snapshot " + name + " deleted (" + removed + " unused sections removed)."));
+            } catch (IOException ex) {
+                fail(player, "Failed to delete snapshot " + name, ex);
+            }
+        });
+    }
+
+    private void applyRestore(Player player, String name, UUID worldId, List<int[]> origins, List<BlockBuffer> buffers) {
+        World world = worldId == null ? null : plugin.getServer().getWorld(worldId);
+        if (world == null) {
+            player.sendMessage(ChatColor.RED + "The world of snapshot " + name + " is not loaded.");
+            return;
+        }
+        // Sections are grouped by chunk so each chunk task only restores its own
+        Map<Long, List<Integer>> byChunk = new HashMap<>();
+        for (int i = 0; i < origins.size(); i++) {
+            int[] origin = origins.get(i);
+            BlockBuffer buffer = buffers.get(i);
+            for (int cx = origin[0] >> 4; cx <= (origin[0] + buffer.getSizeX() - 1) >> 4; cx++) {
+                for (int cz = origin[2] >> 4; cz <= (origin[2] + buffer.getSizeZ() - 1) >> 4; cz++) {
+                    byChunk.computeIfAbsent(ChunkSnapshotCache.chunkKey(cx, cz), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        EditExecutor executor = plugin.getEditExecutor();
+        executor.buildOperation(world, byChunk.keySet(), edit -> {
+            for (int i : byChunk.get(edit.getChunkKey())) {
+                restoreSection(edit, origins.get(i), buffers.get(i));
+            }
+        }, op -> {
+            if (op.isEmpty()) {
+                player.sendMessage(ChatColor.YELLOW + "Snapshot " + name + " matches the world; nothing to restore.");
+                return;
+            }
+            executor.apply(op, () -> {
+                plugin.getHistoryManager().recordOperation(player, op);
+                player.sendMessage(ChatColor.GREEN + "Restored snapshot " + name + " (" + op.getBlockCount() + " blocks changed).");
+            });
+        });
+    }
+
+    /**
+     * Records every stored block of the section inside the chunk that differs
+     * from the world.
+     */
+    private static void restoreSection(ChunkEdit edit, int[] origin, BlockBuffer buffer) {
+        int fromX = Math.max(origin[0], edit.getMinX());
+        int toX = Math.min(origin[0] + buffer.getSizeX() - 1, edit.getMaxX());
+        int fromZ = Math.max(origin[2], edit.getMinZ());
+        int toZ = Math.min(origin[2] + buffer.getSizeZ() - 1, edit.getMaxZ());
+        for (int y = 0; y < buffer.getSizeY(); y++) {
+            int wy = origin[1] + y;
+            for (int wz = fromZ; wz <= toZ; wz++) {
+                for (int wx = fromX; wx <= toX; wx++) {
+                    BlockData stored = buffer.get(wx - origin[0], y, wz - origin[2]);
+                    BlockData existing = edit.getBlockData(wx, wy, wz);
+                    if (existing != null && !existing.equals(stored)) {
+                        edit.set(wx, wy, wz, existing, stored);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] encodeSection(ChunkSnapshot chunk, int x0, int x1, int y0, int y1, int z0, int z1) throws IOException {
+        BlockBuffer buffer = new BlockBuffer(x1 - x0 + 1, y1 - y0 + 1, z1 - z0 + 1);
+        for (int y = y0; y <= y1; y++) {
+            for (int z = z0; z <= z1; z++) {
+                for (int x = x0; x <= x1; x++) {
+                    buffer.set(x - x0, y - y0, z - z0, chunk.getBlockData(x & 15, y, z & 15));
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            buffer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the blob unless one with the same hash already exists.  Returns the
+     * number of bytes written, or 0 if the blob was already stored.
+     */
+    private long writeBlob(String hash, byte[] encoded) throws IOException {
+        File file = blobFile(hash);
+        if (file.isFile()) {
+            return 0;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(encoded);
+        }
+        writeAtomically(file.toPath(), compressed.toByteArray());
+        return compressed.size();
+    }
+
+    private BlockBuffer readBlob(String hash) throws IOException {
+        File file = blobFile(hash);
+        if (!file.isFile()) {
+            throw new IOException("Missing snapshot section " + hash);
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return BlockBuffer.read(new DataInputStream(in), plugin.getServer()::createBlockData);
+        }
+    }
+
+    /**
+     * Deletes every blob that is not referenced by a remaining manifest.
+     */
+    private int pruneBlobs() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (File file : manifestFiles()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("section ")) {
+                    referenced.add(line.substring(line.lastIndexOf(' ') + 1));
+                }
+            }
+        }
+        if (!blobDir.isDirectory()) {
+            return 0;
+        }
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(blobDir.toPath())) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String fileName = path.getFileName().toString();
+                if (Files.isRegularFile(path) && !referenced.contains(fileName)) {
+                    Files.delete(path);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static void writeAtomically(Path target, byte[] data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "tmp", ".part");
+        try {
+            Files.write(temp, data);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    private File[] manifestFiles() {
+        File[] files = snapshotDir.listFiles((dir, fileName) -> fileName.endsWith(MANIFEST_SUFFIX));
+        return files == null ? new File[0] : files;
+    }
+
+    private File manifestFile(String name) {
+        return new File(snapshotDir, name + MANIFEST_SUFFIX);
+    }
+
+    private File blobFile(String hash) {
+        // Fan out into subdirectories so no single directory grows too large
+        return new File(new File(blobDir, hash.substring(0, 2)), hash);
+    }
+
+    private String validateName(Player player, String rawName) {
+        String name = rawName.toLowerCase(Locale.ROOT);
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            player.sendMessage(ChatColor.RED + "Snapshot names may only use letters, digits, '_' and '-' (max 32).");
+            return null;
+        }
+        return name;
+    }
+
+    /**
+     * Runs the task on the global thread, or drops it if the plugin has been
+     * disabled and can no longer schedule tasks.
+     */
+    private void runGlobal(Runnable task) {
+        if (!plugin.isEnabled()) {
+            return;
+        }
+        plugin.getEditExecutor().getScheduler().runGlobal(task);
+    }
+
+    private void fail(Player player, String message, Exception ex) {
+        plugin.getLogger().log(Level.WARNING, message, ex);
+        runGlobal(() ->
+                player.sendMessage(ChatColor.RED + message + ": " + ex.getMessage()));
+    }
+}
@@ -0,0 +1,127 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Builds operations that only touch the top of each column in a region.  The top
+ * block of a column is read from the world's heightmap; only when the heightmap
+ * points above the region (for example under an overhang) are a few blocks
+ * scanned downwards.  The cost of an edit therefore scales with the area of the
+ * selection rather than its volume.  Every column lies in a single chunk, so
+ * each method handles the columns of one {@link ChunkEdit} and is meant to be
+ * passed to {@link EditExecutor#buildOperation}.
+ */
+public class SurfaceEditor {
+    private static final int NATURALIZE_DIRT_DEPTH = 3;
+    private static final Set<Material> NATURAL = EnumSet.of(Material.STONE, Material.DIRT, Material.GRASS_BLOCK,
+            Material.COARSE_DIRT, Material.PODZOL, Material.ROOTED_DIRT, Material.MYCELIUM);
+
+    private final Region region;
+
+    public SurfaceEditor(Region region) {
+        this.region = region;
+    }
+
+    /**
+     * Places the block on top of the surface of every column.
+     */
+    public void overlay(ChunkEdit edit, BlockData data) {
+        World world = edit.getWorld();
+        int ceiling = Math.min(region.getMaxY() + 1, world.getMaxHeight() - 1);
+        for (int x = fromX(edit); x <= toX(edit); x++) {
+            for (int z = fromZ(edit); z <= toZ(edit); z++) {
+                int top = topY(edit, x, z);
+                if (top == Integer.MIN_VALUE || top + 1 > ceiling) {
+                    continue;
+                }
+                BlockData above = edit.getBlockData(x, top + 1, z);
+                if (above != null && above.getMaterial().isAir()) {
+                    edit.set(x, top + 1, z, above, data);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns the surface of natural terrain into a grass block with a few layers of
+     * dirt beneath it.  Columns stop at the first non-natural block.
+     */
+    public void naturalize(ChunkEdit edit, BlockData grass, BlockData dirt) {
+        for (int x = fromX(edit); x <= toX(edit); x++) {
+            for (int z = fromZ(edit); z <= toZ(edit); z++) {
+                int top = topY(edit, x, z);
+                if (top == Integer.MIN_VALUE) {
+                    continue;
+                }
+                for (int depth = 0; depth <= NATURALIZE_DIRT_DEPTH && top - depth >= region.getMinY(); depth++) {
+                    int y = top - depth;
+                    BlockData current = edit.getBlockData(x, y, z);
+                    if (current == null || !NATURAL.contains(current.getMaterial())) {
+                        break;
+                    }
+                    BlockData target = depth == 0 ? grass : dirt;
+                    if (!current.equals(target)) {
+                        edit.set(x, y, z, current, target);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the top block of every column if it matches the given block.
+     */
+    public void replaceTop(ChunkEdit edit, BlockData from, BlockData to) {
+        for (int x = fromX(edit); x <= toX(edit); x++) {
+            for (int z = fromZ(edit); z <= toZ(edit); z++) {
+                int top = topY(edit, x, z);
+                if (top == Integer.MIN_VALUE) {
+                    continue;
+                }
+                BlockData current = edit.getBlockData(x, top, z);
+                if (current != null && current.matches(from)) {
+                    edit.set(x, top, z, current, to);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the Y coordinate of the highest non-air block of the column inside
+     * the region, or Integer.MIN_VALUE if the column has none.
+     */
+    private int topY(ChunkEdit edit, int x, int z) {
+        World world = edit.getWorld();
+        int minY = Math.max(region.getMinY(), world.getMinHeight());
+        int y = Math.min(edit.getHighestBlockYAt(x, z), Math.min(region.getMaxY(), world.getMaxHeight() - 1));
+        while (y >= minY) {
+            BlockData data = edit.getBlockData(x, y, z);
+            if (data != null && !data.getMaterial().isAir()) {
+                return y;
+            }
+            y--;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    private int fromX(ChunkEdit edit) {
+        return Math.max(region.getMinX(), edit.getMinX());
+    }
+
+    private int toX(ChunkEdit edit) {
+        return Math.min(region.getMaxX(), edit.getMaxX());
+    }
+
+    private int fromZ(ChunkEdit edit) {
+        return Math.max(region.getMinZ(), edit.getMinZ());
+    }
+
+    private int toZ(ChunkEdit edit) {
+        return Math.min(region.getMaxZ(), edit.getMaxZ());
+    }
+}
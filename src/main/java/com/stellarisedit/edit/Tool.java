@@ -0,0 +1,19 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+
+/**
+ * Something a player can use by clicking with an item bound to it, such as the
+ * selection wand or a brush.  Tools are resolved by {@link ToolManager}.
+ */
+@FunctionalInterface
+public interface Tool {
+    /**
+     * Handles a click with the tool's item.  clicked is null when the player
+     * clicked the air.  Returns true if the click was consumed and the event
+     * should be cancelled.
+     */
+    boolean use(Player player, Action action, Block clicked);
+}
@@ -0,0 +1,152 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches item clicks to tools.  A tool item carries a single string id in its
+ * persistent data container, which is resolved first in the clicking player's
+ * own tool registry and then among the tools shared by every player (such as
+ * the selection wand).  This lets each player bind different brushes to
+ * different items.
+ *
+ * This is the plugin's only interact listener and runs on nearly every click, so
+ * items are first rejected by type: only materials that have ever been bound
+ * are looked at further, and the item meta (which is copied on access) is only
+ * read for those.  Bindings are kept in memory; items bound before a restart
+ * have to be bound again.  Selection wands handed out before tool ids existed
+ * only carry the old wand marker and still resolve to the wand.
+ */
+public class ToolManager implements Listener {
+    private static final NamespacedKey TOOL_KEY = new NamespacedKey("stellarisedit", "tool");
+    private static final NamespacedKey LEGACY_WAND_KEY = new NamespacedKey("stellarisedit", "wand");
+
+    private final Map<String, Tool> sharedTools = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, Tool>> playerTools = new ConcurrentHashMap<>();
+    // Copied on write; binding is rare while every click reads it
+    private volatile Set<Material> boundMaterials = EnumSet.noneOf(Material.class);
+
+    /**
+     * Registers a tool available to every player under a fixed id.  Items are
+     * tagged for it with {@link #tag}.
+     */
+    public void registerShared(String id, Material material, Tool tool) {
+        sharedTools.put(id, tool);
+        addMaterial(material);
+    }
+
+    /**
+     * Tags the item with the tool id and gives it a display name.
+     */
+    public void tag(ItemStack item, String id, String displayName) {
+        ItemMeta meta = item.getItemMeta();
+        if (meta == null) {
+            throw new IllegalArgumentException("Tools cannot be bound to " + item.getType());
+        }
+        meta.setDisplayName(displayName);
+        meta.getPersistentDataContainer().set(TOOL_KEY, PersistentDataType.STRING, id);
+        item.setItemMeta(meta);
+        addMaterial(item.getType());
+    }
+
+    /**
+     * Binds the tool to the item for the given player.  If the item is already
+     * bound to one of the player's tools, that binding is replaced; otherwise the
+     * item gets a new id.
+     */
+    public void bind(Player player, ItemStack item, Tool tool, String displayName) {
+        Map<String, Tool> tools = playerTools.computeIfAbsent(player.getUniqueId(), k -> new ConcurrentHashMap<>());
+        String id = getId(item);
+        if (id == null || !tools.containsKey(id)) {
+            id = UUID.randomUUID().toString();
+        }
+        tag(item, id, displayName);
+        tools.put(id, tool);
+    }
+
+    /**
+     * Removes the tool binding from the item.  Returns false if the item was not
+     * a tool.
+     */
+    public boolean unbind(Player player, ItemStack item) {
+        String id = getId(item);
+        if (id == null) {
+            return false;
+        }
+        Map<String, Tool> tools = playerTools.get(player.getUniqueId());
+        if (tools != null) {
+            tools.remove(id);
+        }
+        ItemMeta meta = item.getItemMeta();
+        meta.getPersistentDataContainer().remove(TOOL_KEY);
+        meta.getPersistentDataContainer().remove(LEGACY_WAND_KEY);
+        meta.setDisplayName(null);
+        item.setItemMeta(meta);
+        return true;
+    }
+
+    @EventHandler
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        ItemStack item = event.getItem();
+        if (item == null || !boundMaterials.contains(item.getType())) {
+            return;
+        }
+        String id = getId(item);
+        if (id == null) {
+            return;
+        }
+        Player player = event.getPlayer();
+        Tool tool = resolve(player, id);
+        if (tool == null) {
+            if (event.getAction() == Action.RIGHT_CLICK_BLOCK || event.getAction() == Action.RIGHT_CLICK_AIR) {
+                player.sendMessage(ChatColor.RED + "This tool is not bound for you. Hold it and use /se brush ... to bind it.");
+            }
+            return;
+        }
+        if (tool.use(player, event.getAction(), event.getClickedBlock())) {
+            event.setCancelled(true);
+        }
+    }
+
+    private Tool resolve(Player player, String id) {
+        Map<String, Tool> tools = playerTools.get(player.getUniqueId());
+        Tool tool = tools != null ? tools.get(id) : null;
+        return tool != null ? tool : sharedTools.get(id);
+    }
+
+    private static String getId(ItemStack item) {
+        if (!item.hasItemMeta()) {
+            return null;
+        }
+        PersistentDataContainer data = item.getItemMeta().getPersistentDataContainer();
+        String id = data.get(TOOL_KEY, PersistentDataType.STRING);
+        if (id == null && data.has(LEGACY_WAND_KEY, PersistentDataType.BYTE)) {
+            return SelectionManager.WAND_ID;
+        }
+        return id;
+    }
+
+    private synchronized void addMaterial(Material material) {
+        if (!boundMaterials.contains(material)) {
+            Set<Material> copy = EnumSet.copyOf(boundMaterials);
+            copy.add(material);
+            boundMaterials = copy;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.stellarisedit.expression;
+
+import org.bukkit.util.noise.PerlinNoiseGenerator;
+import org.bukkit.util.noise.SimplexNoiseGenerator;
+
+/**
+ * A compiled math expression over the variables x, y and z.  The source is parsed
+ * once into a flat list of register instructions (see {@link ExpressionCompiler});
+ * evaluating it is a single loop over that list with no tree walking and no
+ * allocation.  A compiled expression is immutable and can be shared between
+ * threads as long as every thread uses its own register array from
+ * {@link #newRegisters()}.
+ *
+ * Comparison and logical operators yield 1 for true and 0 for false; any non-zero
+ * value counts as true.
+ *
+ * {@code noise} (Perlin) and {@code simplex} return smooth noise in about -1 to
+ * 1 with features about 16 blocks across, so they can
+ * be called with block coordinates directly, as in
+ * {@code x^2+z^2<y*4 && noise(x,y,z)>0.2}.  Both come from generators with a
+ * fixed seed, whose random offsets keep whole coordinates off the lattice
+ * points where gradient noise is always 0; the same expression therefore
+ * always gives the same shape.
+ */
+public final class Expression {
+    static final int INSTRUCTION_SIZE = 5;
+
+    static final int ADD = 0;
+    static final int SUB = 1;
+    static final int MUL = 2;
+    static final int DIV = 3;
+    static final int MOD = 4;
+    static final int POW = 5;
+    static final int NEG = 6;
+    static final int NOT = 7;
+    static final int LT = 8;
+    static final int LE = 9;
+    static final int GT = 10;
+    static final int GE = 11;
+    static final int EQ = 12;
+    static final int NE = 13;
+    static final int AND = 14;
+    static final int OR = 15;
+    static final int SIN = 16;
+    static final int COS = 17;
+    static final int TAN = 18;
+    static final int ABS = 19;
+    static final int SQRT = 20;
+    static final int FLOOR = 21;
+    static final int CEIL = 22;
+    static final int MIN = 23;
+    static final int MAX = 24;
+    static final int NOISE = 25;
+    static final int SIMPLEX = 26;
+
+    // Distance in blocks over which noise() and simplex() change noticeably
+    private static final double NOISE_FEATURE_SIZE = 16;
+    private static final long NOISE_SEED = 0x5E1A15EDL;
+    // The generators only read their tables, so they can be shared between threads
+    private static final PerlinNoiseGenerator PERLIN = new PerlinNoiseGenerator(NOISE_SEED);
+    private static final SimplexNoiseGenerator SIMPLEX_NOISE = new SimplexNoiseGenerator(NOISE_SEED);
+
+    private final String source;
+    private final int[] code;
+    private final double[] initialRegisters;
+    private final int resultRegister;
+
+    Expression(String source, int[] code, double[] initialRegisters, int resultRegister) {
+        this.source = source;
+        this.code = code;
+        this.initialRegisters = initialRegisters;
+        this.resultRegister = resultRegister;
+    }
+
+    /**
+     * Compiles the expression.  Throws IllegalArgumentException with a
+     * user-facing message if the source is invalid.
+     */
+    public static Expression compile(String source) {
+        return new ExpressionCompiler(source).compile();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of instructions left after constant folding.
+     */
+    public int getInstructionCount() {
+        return code.length / INSTRUCTION_SIZE;
+    }
+
+    /**
+     * Returns a fresh register array for use with {@link #evaluate}.  Constants
+     * are preloaded, so the array must not be shared between threads.
+     */
+    public double[] newRegisters() {
+        return initialRegisters.clone();
+    }
+
+    /**
+     * Evaluates the expression for the given coordinates.
+     */
+    public double evaluate(double x, double y, double z, double[] r) {
+        r[ExpressionCompiler.REGISTER_X] = x;
+        r[ExpressionCompiler.REGISTER_Y] = y;
+        r[ExpressionCompiler.REGISTER_Z] = z;
+        int[] c = code;
+        for (int pc = 0; pc < c.length; pc += INSTRUCTION_SIZE) {
+            double a = r[c[pc + 2]];
+            double b = r[c[pc + 3]];
+            double value;
+            switch (c[pc]) {
+                case ADD: value = a + b; break;
+                case SUB: value = a - b; break;
+                case MUL: value = a * b; break;
+                case DIV: value = a / b; break;
+                case MOD: value = a % b; break;
+                case POW: value = Math.pow(a, b); break;
+                case NEG: value = -a; break;
+                case NOT: value = a == 0 ? 1 : 0; break;
+                case LT: value = a < b ? 1 : 0; break;
+                case LE: value = a <= b ? 1 : 0; break;
+                case GT: value = a > b ? 1 : 0; break;
+                case GE: value = a >= b ? 1 : 0; break;
+                case EQ: value = a == b ? 1 : 0; break;
+                case NE: value = a != b ? 1 : 0; break;
+                case AND: value = a != 0 && b != 0 ? 1 : 0; break;
+                case OR: value = a != 0 || b != 0 ? 1 : 0; break;
+                case SIN: value = Math.sin(a); break;
+                case COS: value = Math.cos(a); break;
+                case TAN: value = Math.tan(a); break;
+                case ABS: value = Math.abs(a); break;
+                case SQRT: value = Math.sqrt(a); break;
+                case FLOOR: value = Math.floor(a); break;
+                case CEIL: value = Math.ceil(a); break;
+                case MIN: value = Math.min(a, b); break;
+                case MAX: value = Math.max(a, b); break;
+                case NOISE: value = PERLIN.noise(a / NOISE_FEATURE_SIZE, b / NOISE_FEATURE_SIZE, r[c[pc + 4]] / NOISE_FEATURE_SIZE); break;
+                case SIMPLEX: value = SIMPLEX_NOISE.noise(a / NOISE_FEATURE_SIZE, b / NOISE_FEATURE_SIZE, r[c[pc + 4]] / NOISE_FEATURE_SIZE); break;
+                default: throw new IllegalStateException("Unknown opcode " + c[pc]);
+            }
+            r[c[pc + 1]] = value;
+        }
+        return r[resultRegister];
+    }
+
+    /**
+     * Evaluates a single instruction on constant operands; used for folding.
+     */
+    static double fold(int op, double a, double b, double c) {
+        double[] registers = {0, 0, 0, a, b, c, 0};
+        int[] code = {op, 6, 3, 4, 5};
+        return new Expression("", code, registers, 6).evaluate(0, 0, 0, registers);
+    }
+}
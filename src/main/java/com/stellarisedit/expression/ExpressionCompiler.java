@@ -0,0 +1,294 @@
+package com.stellarisedit.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recursive descent parser that emits register instructions directly while
+ * parsing, without building a syntax tree.  Registers 0 to 2 hold x, y and z and
+ * register 3 holds zero for unused operands; every other constant and
+ * intermediate result gets its own register after those.
+ * Operations whose operands are all constants are folded at compile time.
+ *
+ * Grammar, lowest precedence first:
+ * <pre>
+ * or      := and ('||' and)*
+ * and     := compare ('&amp;&amp;' compare)*
+ * compare := sum (('&lt;' | '&lt;=' | '&gt;' | '&gt;=' | '==' | '!=') sum)?
+ * sum     := product (('+' | '-') product)*
+ * product := unary (('*' | '/' | '%') unary)*
+ * unary   := ('-' | '!') unary | power
+ * power   := primary ('^' unary)?
+ * primary := number | variable | constant | function '(' args ')' | '(' or ')'
+ * </pre>
+ */
+final class ExpressionCompiler {
+    static final int REGISTER_X = 0;
+    static final int REGISTER_Y = 1;
+    static final int REGISTER_Z = 2;
+    private static final int REGISTER_UNUSED = 3;
+
+    private static final Map<String, int[]> FUNCTIONS = new HashMap<>();
+
+    static {
+        // name -> {opcode, argument count}
+        FUNCTIONS.put("sin", new int[]{Expression.SIN, 1});
+        FUNCTIONS.put("cos", new int[]{Expression.COS, 1});
+        FUNCTIONS.put("tan", new int[]{Expression.TAN, 1});
+        FUNCTIONS.put("abs", new int[]{Expression.ABS, 1});
+        FUNCTIONS.put("sqrt", new int[]{Expression.SQRT, 1});
+        FUNCTIONS.put("floor", new int[]{Expression.FLOOR, 1});
+        FUNCTIONS.put("ceil", new int[]{Expression.CEIL, 1});
+        FUNCTIONS.put("min", new int[]{Expression.MIN, 2});
+        FUNCTIONS.put("max", new int[]{Expression.MAX, 2});
+        FUNCTIONS.put("pow", new int[]{Expression.POW, 2});
+        FUNCTIONS.put("noise", new int[]{Expression.NOISE, 3});
+        FUNCTIONS.put("simplex", new int[]{Expression.SIMPLEX, 3});
+    }
+
+    private final String source;
+    private final List<Integer> code = new ArrayList<>();
+    private final List<Double> registers = new ArrayList<>();
+    private final Map<Integer, Double> constants = new HashMap<>();
+    private int pos;
+
+    ExpressionCompiler(String source) {
+        this.source = source;
+        registers.add(0.0);
+        registers.add(0.0);
+        registers.add(0.0);
+        constant(0.0);
+    }
+
+    Expression compile() {
+        skipWhitespace();
+        if (pos >= source.length()) {
+            throw error("Expression is empty");
+        }
+        int result = parseOr();
+        skipWhitespace();
+        if (pos < source.length()) {
+            throw error("Unexpected '" + source.charAt(pos) + "'");
+        }
+        int[] program = new int[code.size()];
+        for (int i = 0; i < program.length; i++) {
+            program[i] = code.get(i);
+        }
+        double[] initial = new double[registers.size()];
+        for (int i = 0; i < initial.length; i++) {
+            initial[i] = registers.get(i);
+        }
+        return new Expression(source, program, initial, result);
+    }
+
+    private int parseOr() {
+        int left = parseAnd();
+        while (match("||")) {
+            left = emit(Expression.OR, left, parseAnd(), REGISTER_UNUSED);
+        }
+        return left;
+    }
+
+    private int parseAnd() {
+        int left = parseCompare();
+        while (match("&&")) {
+            left = emit(Expression.AND, left, parseCompare(), REGISTER_UNUSED);
+        }
+        return left;
+    }
+
+    private int parseCompare() {
+        int left = parseSum();
+        if (match("<=")) {
+            return emit(Expression.LE, left, parseSum(), REGISTER_UNUSED);
+        } else if (match(">=")) {
+            return emit(Expression.GE, left, parseSum(), REGISTER_UNUSED);
+        } else if (match("==")) {
+            return emit(Expression.EQ, left, parseSum(), REGISTER_UNUSED);
+        } else if (match("!=")) {
+            return emit(Expression.NE, left, parseSum(), REGISTER_UNUSED);
+        } else if (match("<")) {
+            return emit(Expression.LT, left, parseSum(), REGISTER_UNUSED);
+        } else if (match(">")) {
+            return emit(Expression.GT, left, parseSum(), REGISTER_UNUSED);
+        }
+        return left;
+    }
+
+    private int parseSum() {
+        int left = parseProduct();
+        while (true) {
+            if (match("+")) {
+                left = emit(Expression.ADD, left, parseProduct(), REGISTER_UNUSED);
+            } else if (match("-")) {
+                left = emit(Expression.SUB, left, parseProduct(), REGISTER_UNUSED);
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private int parseProduct() {
+        int left = parseUnary();
+        while (true) {
+            if (match("*")) {
+                left = emit(Expression.MUL, left, parseUnary(), REGISTER_UNUSED);
+            } else if (match("/")) {
+                left = emit(Expression.DIV, left, parseUnary(), REGISTER_UNUSED);
+            } else if (match("%")) {
+                left = emit(Expression.MOD, left, parseUnary(), REGISTER_UNUSED);
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private int parseUnary() {
+        if (match("-")) {
+            return emit(Expression.NEG, parseUnary(), REGISTER_UNUSED, REGISTER_UNUSED);
+        }
+        if (peek() == '!' && peekAt(1) != '=') {
+            pos++;
+            return emit(Expression.NOT, parseUnary(), REGISTER_UNUSED, REGISTER_UNUSED);
+        }
+        return parsePower();
+    }
+
+    private int parsePower() {
+        int base = parsePrimary();
+        if (match("^")) {
+            return emit(Expression.POW, base, parseUnary(), REGISTER_UNUSED);
+        }
+        return base;
+    }
+
+    private int parsePrimary() {
+        skipWhitespace();
+        if (pos >= source.length()) {
+            throw error("Unexpected end of expression");
+        }
+        char c = source.charAt(pos);
+        if (c == '(') {
+            pos++;
+            int inner = parseOr();
+            expect(")");
+            return inner;
+        }
+        if (Character.isDigit(c) || c == '.') {
+            int start = pos;
+            while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                pos++;
+            }
+            try {
+                return constant(Double.parseDouble(source.substring(start, pos)));
+            } catch (NumberFormatException ex) {
+                throw error("Invalid number " + source.substring(start, pos));
+            }
+        }
+        if (Character.isLetter(c)) {
+            int start = pos;
+            while (pos < source.length() && Character.isLetterOrDigit(source.charAt(pos))) {
+                pos++;
+            }
+            String name = source.substring(start, pos).toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "x":
+                    return REGISTER_X;
+                case "y":
+                    return REGISTER_Y;
+                case "z":
+                    return REGISTER_Z;
+                case "pi":
+                    return constant(Math.PI);
+                case "e":
+                    return constant(Math.E);
+                default:
+                    return parseCall(name);
+            }
+        }
+        throw error("Unexpected '" + c + "'");
+    }
+
+    private int parseCall(String name) {
+        int[] function = FUNCTIONS.get(name);
+        if (function == null) {
+            throw error("Unknown variable or function '" + name + "'");
+        }
+        expect("(");
+        int[] args = {REGISTER_UNUSED, REGISTER_UNUSED, REGISTER_UNUSED};
+        for (int i = 0; i < function[1]; i++) {
+            if (i > 0) {
+                expect(",");
+            }
+            args[i] = parseOr();
+        }
+        expect(")");
+        return emit(function[0], args[0], args[1], args[2]);
+    }
+
+    /**
+     * Emits an instruction writing a new register, or folds it into a constant if
+     * every operand is constant.
+     */
+    private int emit(int op, int a, int b, int c) {
+        if (isConstant(a) && isConstant(b) && isConstant(c)) {
+            return constant(Expression.fold(op, registers.get(a), registers.get(b), registers.get(c)));
+        }
+        int dst = registers.size();
+        registers.add(0.0);
+        code.add(op);
+        code.add(dst);
+        code.add(a);
+        code.add(b);
+        code.add(c);
+        return dst;
+    }
+
+    private boolean isConstant(int register) {
+        return constants.containsKey(register);
+    }
+
+    private int constant(double value) {
+        int register = registers.size();
+        registers.add(value);
+        constants.put(register, value);
+        return register;
+    }
+
+    private boolean match(String token) {
+        skipWhitespace();
+        if (source.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!match(token)) {
+            throw error("Expected '" + token + "'");
+        }
+    }
+
+    private char peek() {
+        skipWhitespace();
+        return peekAt(0);
+    }
+
+    private char peekAt(int offset) {
+        return pos + offset < source.length() ? source.charAt(pos + offset) : '\0';
+    }
+
+    private void skipWhitespace() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + (pos + 1) + " in expression.");
+    }
+}
@@ -0,0 +1,47 @@
+package com.stellarisedit.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Scheduler for classic single-threaded servers.  Every chunk belongs to the main
+ * thread, so tasks submitted from the main thread run immediately and edits
+ * behave exactly as if they were executed inline.
+ */
+public class BukkitEditScheduler implements EditScheduler {
+    private final Plugin plugin;
+
+    public BukkitEditScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        runGlobal(task);
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    @Override
+    public void runGlobalLater(Runnable task, long delayTicks) {
+        plugin.getServer().getScheduler().runTaskLater(plugin, task, delayTicks);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return Bukkit.isPrimaryThread();
+    }
+}
@@ -0,0 +1,38 @@
+package com.stellarisedit.scheduler;
+
+import org.bukkit.World;
+
+/**
+ * Abstraction over the server's task scheduling.  On a classic server every
+ * chunk is owned by the single main thread; on a region-threaded server each
+ * chunk is owned by the thread ticking its region.  Edits use this interface so
+ * that world access always happens on the thread that owns the chunk.
+ */
+public interface EditScheduler {
+
+    /**
+     * Runs the task on the thread that owns the given chunk.  Implementations may
+     * run the task immediately if the calling thread already owns the chunk.
+     */
+    void runAtChunk(World world, int chunkX, int chunkZ, Runnable task);
+
+    /**
+     * Runs the task on the global tick thread (the main thread on classic servers).
+     */
+    void runGlobal(Runnable task);
+
+    /**
+     * Runs the task on the global tick thread after the given number of ticks.
+     */
+    void runGlobalLater(Runnable task, long delayTicks);
+
+    /**
+     * Runs the task off the tick threads.
+     */
+    void runAsync(Runnable task);
+
+    /**
+     * Returns true if the calling thread may access the given chunk directly.
+     */
+    boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ);
+}
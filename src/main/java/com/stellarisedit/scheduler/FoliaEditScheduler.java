@@ -0,0 +1,95 @@
+package com.stellarisedit.scheduler;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Consumer;
+
+/**
+ * Scheduler for region-threaded (Folia) servers.  The region, global and async
+ * schedulers are not part of the Spigot API we compile against, so they are
+ * resolved reflectively once at startup.
+ */
+public class FoliaEditScheduler implements EditScheduler {
+    private final Plugin plugin;
+    private final Object regionScheduler;
+    private final Object globalScheduler;
+    private final Object asyncScheduler;
+    private final Method regionExecute;
+    private final Method globalExecute;
+    private final Method globalRunDelayed;
+    private final Method asyncRunNow;
+    private final Method isOwnedByCurrentRegion;
+
+    public FoliaEditScheduler(Plugin plugin) throws ReflectiveOperationException {
+        this.plugin = plugin;
+        Server server = plugin.getServer();
+        Class<?> regionType = Class.forName("io.papermc.paper.threadedregions.scheduler.RegionScheduler");
+        Class<?> globalType = Class.forName("io.papermc.paper.threadedregions.scheduler.GlobalRegionScheduler");
+        Class<?> asyncType = Class.forName("io.papermc.paper.threadedregions.scheduler.AsyncScheduler");
+        this.regionScheduler = Server.class.getMethod("getRegionScheduler").invoke(server);
+        this.globalScheduler = Server.class.getMethod("getGlobalRegionScheduler").invoke(server);
+        this.asyncScheduler = Server.class.getMethod("getAsyncScheduler").invoke(server);
+        this.regionExecute = regionType.getMethod("execute", Plugin.class, World.class, int.class, int.class, Runnable.class);
+        this.globalExecute = globalType.getMethod("execute", Plugin.class, Runnable.class);
+        this.globalRunDelayed = globalType.getMethod("runDelayed", Plugin.class, Consumer.class, long.class);
+        this.asyncRunNow = asyncType.getMethod("runNow", Plugin.class, Consumer.class);
+        this.isOwnedByCurrentRegion = Server.class.getMethod("isOwnedByCurrentRegion", World.class, int.class, int.class);
+    }
+
+    /**
+     * Returns true if the server is running a region-threaded implementation.
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        invoke(regionExecute, regionScheduler, plugin, world, chunkX, chunkZ, task);
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        invoke(globalExecute, globalScheduler, plugin, task);
+    }
+
+    @Override
+    public void runGlobalLater(Runnable task, long delayTicks) {
+        Consumer<Object> consumer = scheduledTask -> task.run();
+        invoke(globalRunDelayed, globalScheduler, plugin, consumer, Math.max(1L, delayTicks));
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Consumer<Object> consumer = scheduledTask -> task.run();
+        invoke(asyncRunNow, asyncScheduler, plugin, consumer);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return (Boolean) invoke(isOwnedByCurrentRegion, plugin.getServer(), world, chunkX, chunkZ);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot access " + method.getName(), ex);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(method.getName() + " failed", cause);
+        }
+    }
+}
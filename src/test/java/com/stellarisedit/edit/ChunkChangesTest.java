@@ -0,0 +1,58 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.block.data.BlockData;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ChunkChangesTest {
+    private static final BlockData STONE = blockData();
+    private static final BlockData AIR = blockData();
+
+    @Test
+    void positionsRoundTripInNegativeChunks() {
+        ChunkChanges changes = new ChunkChanges(-2, -1, -64);
+        changes.add(-32, -64, -16, STONE, AIR);
+        changes.add(-17, 319, -1, AIR, STONE);
+
+        assertEquals(2, changes.size());
+        assertEquals(-32, changes.getX(0));
+        assertEquals(-64, changes.getY(0));
+        assertEquals(-16, changes.getZ(0));
+        assertEquals(-17, changes.getX(1));
+        assertEquals(319, changes.getY(1));
+        assertEquals(-1, changes.getZ(1));
+        assertEquals(ChunkSnapshotCache.chunkKey(-2, -1), changes.getChunkKey());
+    }
+
+    @Test
+    void statesShareOnePalette() {
+        ChunkChanges changes = new ChunkChanges(0, 0, 0);
+        for (int i = 0; i < 200; i++) {
+            changes.add(i & 15, i, 0, STONE, AIR);
+        }
+
+        assertEquals(200, changes.size());
+        assertSame(STONE, changes.getBefore(199));
+        assertSame(AIR, changes.getAfter(199));
+        assertEquals(5, changes.getY(5));
+    }
+
+    private static BlockData blockData() {
+        Object instance = Proxy.newProxyInstance(BlockData.class.getClassLoader(), new Class<?>[] {BlockData.class},
+                (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "equals":
+                            return self == args[0];
+                        default:
+                            return null;
+                    }
+                });
+        return (BlockData) instance;
+    }
+}
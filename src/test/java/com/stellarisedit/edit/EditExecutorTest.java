@@ -0,0 +1,203 @@
+package com.stellarisedit.edit;
+
+import com.stellarisedit.scheduler.FakeEditScheduler;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditExecutorTest {
+    private static final BlockData STONE = proxy(BlockData.class, (method, args) -> null);
+
+    private final Set<Integer> written = new HashSet<>();
+    private final List<Integer> capturedChunks = new ArrayList<>();
+    private int failingChunkX = Integer.MIN_VALUE;
+
+    @Test
+    void applyRunsCallbackOnceAfterEveryChunk() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(false);
+        AtomicInteger calls = new AtomicInteger();
+        List<Set<Integer>> writtenAtCallback = new ArrayList<>();
+        Operation op = operation(0, 16, 32);
+
+        executor(scheduler).apply(op, () -> {
+            calls.incrementAndGet();
+            writtenAtCallback.add(new HashSet<>(written));
+        });
+        scheduler.runAll();
+
+        assertEquals(1, calls.get());
+        assertEquals(3, scheduler.getChunkTasks());
+        assertEquals(setOf(0, 16, 32), writtenAtCallback.get(0));
+    }
+
+    @Test
+    void applyRunsCallbackOnceWhenChunkTaskThrows() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(false);
+        AtomicInteger calls = new AtomicInteger();
+        failingChunkX = 1;
+
+        executor(scheduler).apply(operation(0, 16, 32), calls::incrementAndGet);
+        scheduler.runAll();
+
+        assertEquals(1, calls.get());
+        assertEquals(setOf(0, 32), written);
+    }
+
+    @Test
+    void inlineApplyReachesEveryChunkWhenChunkTaskThrows() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(true);
+        AtomicInteger calls = new AtomicInteger();
+        failingChunkX = 0;
+
+        executor(scheduler).apply(operation(0, 16, 32), calls::incrementAndGet);
+
+        assertEquals(1, calls.get());
+        assertEquals(3, scheduler.getChunkTasks());
+        assertEquals(setOf(16, 32), written);
+    }
+
+    @Test
+    void emptyOperationStillRunsCallback() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(false);
+        AtomicInteger calls = new AtomicInteger();
+
+        executor(scheduler).apply(operation(), calls::incrementAndGet);
+        scheduler.runAll();
+
+        assertEquals(1, calls.get());
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    void captureIsSpreadOverTicks() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(true);
+        List<ChunkSnapshotCache> results = new ArrayList<>();
+
+        executor(scheduler).captureSnapshots(world(), EditExecutor.chunkKeys(0, 0, 4, 0), 2, results::add);
+
+        // The first batch runs inline, the rest wait for later ticks
+        assertEquals(2, capturedChunks.size());
+        assertTrue(results.isEmpty());
+        scheduler.runAll();
+        assertEquals(5, capturedChunks.size());
+        assertEquals(1, results.size());
+        assertEquals(5, results.get(0).getSnapshots().size());
+    }
+
+    @Test
+    void captureOfNoChunksStillRunsCallback() {
+        FakeEditScheduler scheduler = new FakeEditScheduler(false);
+        List<ChunkSnapshotCache> results = new ArrayList<>();
+
+        executor(scheduler).captureSnapshots(world(), new ArrayList<>(), 2, results::add);
+        scheduler.runAll();
+
+        assertEquals(1, results.size());
+    }
+
+    private static EditExecutor executor(FakeEditScheduler scheduler) {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        return new EditExecutor(scheduler, logger);
+    }
+
+    /**
+     * Returns an operation setting one block at each x, which selects the chunk.
+     */
+    private Operation operation(int... xs) {
+        World world = world();
+        Map<Location, BlockData> before = new HashMap<>();
+        Map<Location, BlockData> after = new HashMap<>();
+        for (int x : xs) {
+            Location loc = new Location(world, x, 64, 0);
+            before.put(loc, STONE);
+            after.put(loc, STONE);
+        }
+        return new Operation(world, before, after);
+    }
+
+    private World world() {
+        return proxy(World.class, (method, args) -> {
+            switch (method) {
+                case "getName":
+                    return "world";
+                case "getMinHeight":
+                    return 0;
+                case "getMaxHeight":
+                    return 256;
+                case "isChunkGenerated":
+                    return true;
+                case "getChunkAt":
+                    capturedChunks.add((Integer) args[0]);
+                    return proxy(Chunk.class, (chunkMethod, chunkArgs) ->
+                            chunkMethod.equals("getChunkSnapshot") ? proxy(ChunkSnapshot.class, (m, a) -> null) : null);
+                case "getBlockAt":
+                    int x = (Integer) args[0];
+                    if (x >> 4 == failingChunkX) {
+                        throw new IllegalStateException("chunk unavailable");
+                    }
+                    return block(x);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private Block block(int x) {
+        return proxy(Block.class, (method, args) -> {
+            if (method.equals("setBlockData")) {
+                written.add(x);
+            }
+            return null;
+        });
+    }
+
+    private static Set<Integer> setOf(Integer... values) {
+        Set<Integer> set = new HashSet<>();
+        for (Integer value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    /**
+     * Creates a stand-in for a Bukkit interface.  Identity methods behave as for
+     * a plain object; every other call goes to the handler.
+     */
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    return handler.handle(method.getName(), args);
+            }
+        });
+        return type.cast(instance);
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+}
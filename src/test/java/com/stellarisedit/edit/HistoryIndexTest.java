@@ -0,0 +1,159 @@
+package com.stellarisedit.edit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryIndexTest {
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final UUID WORLD_ID = UUID.randomUUID();
+    private static final UUID PLAYER_ID = UUID.randomUUID();
+    private static final World WORLD = world();
+    private static final BlockData STONE = proxy(BlockData.class);
+
+    @Test
+    void operationLargerThanBlockCapIsRejectedWithoutEvictingOthers() {
+        HistoryIndex index = new HistoryIndex(100, 10, RETENTION);
+        Operation small = operation(0, 4);
+        Operation large = operation(100, 11);
+
+        assertTrue(index.add(small, PLAYER_ID, "alice"));
+        assertFalse(index.add(large, PLAYER_ID, "bob"));
+
+        assertEquals(operations(small), operations(query(index)));
+    }
+
+    @Test
+    void oldestOperationsAreEvictedToMakeRoom() {
+        HistoryIndex index = new HistoryIndex(100, 10, RETENTION);
+        Operation first = operation(0, 4);
+        Operation second = operation(16, 4);
+        Operation third = operation(32, 4);
+
+        index.add(first, PLAYER_ID, "alice");
+        index.add(second, PLAYER_ID, "alice");
+        index.add(third, PLAYER_ID, "alice");
+
+        List<Operation> indexed = operations(query(index));
+        assertEquals(2, indexed.size());
+        assertFalse(indexed.contains(first));
+        assertTrue(indexed.contains(second));
+        assertTrue(indexed.contains(third));
+    }
+
+    @Test
+    void operationCountIsCapped() {
+        HistoryIndex index = new HistoryIndex(2, 1000, RETENTION);
+        Operation first = operation(0, 1);
+        index.add(first, PLAYER_ID, "alice");
+        index.add(operation(16, 1), PLAYER_ID, "alice");
+        index.add(operation(32, 1), PLAYER_ID, "alice");
+
+        List<Operation> indexed = operations(query(index));
+        assertEquals(2, indexed.size());
+        assertFalse(indexed.contains(first));
+    }
+
+    @Test
+    void removedOperationFreesItsBlocks() {
+        HistoryIndex index = new HistoryIndex(100, 10, RETENTION);
+        Operation first = operation(0, 8);
+        Operation second = operation(16, 8);
+        index.add(first, PLAYER_ID, "alice");
+        index.remove(first);
+        index.add(second, PLAYER_ID, "alice");
+
+        assertEquals(operations(second), operations(query(index)));
+    }
+
+    @Test
+    void queryOnlyReturnsOperationsInTheAreaAndByThePlayer() {
+        HistoryIndex index = new HistoryIndex(100, 1000, RETENTION);
+        Operation near = operation(0, 2);
+        Operation far = operation(1000, 2);
+        Operation other = operation(4, 2);
+        index.add(near, PLAYER_ID, "alice");
+        index.add(far, PLAYER_ID, "alice");
+        index.add(other, UUID.randomUUID(), "bob");
+
+        assertEquals(operations(near), operations(index.query(WORLD_ID, 0, 0, 16, 0, "Alice")));
+        assertTrue(index.query(UUID.randomUUID(), 0, 0, 16, 0, null).isEmpty());
+    }
+
+    private static List<HistoryIndex.Entry> query(HistoryIndex index) {
+        return index.query(WORLD_ID, 0, 0, 10000, 0, null);
+    }
+
+    private static List<Operation> operations(List<HistoryIndex.Entry> entries) {
+        List<Operation> operations = new ArrayList<>();
+        for (HistoryIndex.Entry entry : entries) {
+            operations.add(entry.getOperation());
+        }
+        return operations;
+    }
+
+    private static List<Operation> operations(Operation... ops) {
+        List<Operation> operations = new ArrayList<>();
+        for (Operation op : ops) {
+            operations.add(op);
+        }
+        return operations;
+    }
+
+    /**
+     * Returns an operation changing a row of blocks starting at x.
+     */
+    private static Operation operation(int x, int blocks) {
+        Map<Location, BlockData> states = new HashMap<>();
+        for (int i = 0; i < blocks; i++) {
+            states.put(new Location(WORLD, x + i, 64, 0), STONE);
+        }
+        return new Operation(WORLD, states, states);
+    }
+
+    private static World world() {
+        Object instance = Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class},
+                (self, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUID":
+                            return WORLD_ID;
+                        case "getMinHeight":
+                            return -64;
+                        case "hashCode":
+                            return System.identityHashCode(self);
+                        case "equals":
+                            return self == args[0];
+                        default:
+                            return null;
+                    }
+                });
+        return (World) instance;
+    }
+
+    private static <T> T proxy(Class<T> type) {
+        Object instance = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                default:
+                    return null;
+            }
+        });
+        return type.cast(instance);
+    }
+}
@@ -0,0 +1,139 @@
+package com.stellarisedit.expression;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionCompilerTest {
+
+    @Test
+    void multiplicationBindsTighterThanAddition() {
+        assertEquals(7, eval("1+2*3"), 0);
+        assertEquals(9, eval("(1+2)*3"), 0);
+        assertEquals(1, eval("7%3*1"), 0);
+        assertEquals(2, eval("8/2/2"), 0);
+        assertEquals(-4, eval("1-2-3"), 0);
+    }
+
+    @Test
+    void comparisonBindsWeakerThanArithmeticAndAndTighterThanOr() {
+        assertEquals(1, eval("x+1>2", 2, 0, 0), 0);
+        assertEquals(0, eval("x+1>2", 1, 0, 0), 0);
+        assertEquals(1, eval("1||0&&0"), 0);
+        assertEquals(0, eval("(1||0)&&0"), 0);
+        assertEquals(1, eval("1<2&&2<=2&&3>=3&&1!=2&&2==2"), 0);
+    }
+
+    @Test
+    void unaryMinusAppliesAfterPower() {
+        assertEquals(-4, eval("-2^2"), 0);
+        assertEquals(4, eval("(-2)^2"), 0);
+        assertEquals(3, eval("--3"), 0);
+        assertEquals(-6, eval("-x*2", 3, 0, 0), 0);
+        assertEquals(1, eval("x<-1", -2, 0, 0), 0);
+        assertEquals(1, eval("!0"), 0);
+        assertEquals(0, eval("!x", 5, 0, 0), 0);
+    }
+
+    @Test
+    void powerIsRightAssociativeAndTakesSignedExponents() {
+        assertEquals(512, eval("2^3^2"), 0);
+        assertEquals(0.5, eval("2^-1"), 0);
+        assertEquals(18, eval("2*3^2"), 0);
+        assertEquals(8, eval("x^3", 2, 0, 0), 0);
+    }
+
+    @Test
+    void constantSubexpressionsAreFolded() {
+        assertEquals(0, Expression.compile("1+2*3").getInstructionCount());
+        assertEquals(0, Expression.compile("sqrt(16)+min(1,2)+pi").getInstructionCount());
+        assertEquals(1, Expression.compile("x+(1+2)").getInstructionCount());
+        assertEquals(1, Expression.compile("x*(2^3-sin(0))").getInstructionCount());
+        // Left to right, x+1 is not constant, so nothing folds
+        assertEquals(2, Expression.compile("x+1+2").getInstructionCount());
+        assertEquals(8, eval("1+2*3+x", 1, 0, 0), 0);
+    }
+
+    @Test
+    void variablesAndFunctionsAreEvaluated() {
+        assertEquals(14, eval("x*x+y*y+z*z", 1, 2, 3), 0);
+        assertEquals(3, eval("max(x,abs(y))", 1, -3, 0), 0);
+        assertEquals(2, eval("floor(x)+ceil(y)", 1.5, 0.5, 0), 0);
+        assertEquals(1, eval("X+Y", 0.5, 0.5, 0), 0);
+    }
+
+    @Test
+    void invalidSourceIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile(""));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("1+"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("(1"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("foo(1)"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("min(1)"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("1 2"));
+    }
+
+    @Test
+    void noiseVariesAtWholeBlockCoordinates() {
+        Expression noise = Expression.compile("noise(x,y,z)");
+        double[] registers = noise.newRegisters();
+        int nonZero = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                double value = noise.evaluate(x, 0, z, registers);
+                if (value != 0) {
+                    nonZero++;
+                }
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        assertTrue(nonZero > 1000, "noise is zero at " + (1024 - nonZero) + " of 1024 points");
+        assertTrue(max - min > 0.2, "noise barely varies: " + min + " to " + max);
+        // Neighbouring blocks differ only slightly
+        assertTrue(Math.abs(noise.evaluate(10, 0, 10, registers) - noise.evaluate(11, 0, 10, registers)) < 0.2);
+    }
+
+    @Test
+    void noiseExampleCarvesPartOfTheShape() {
+        Expression shape = Expression.compile("x^2+z^2<y*4");
+        Expression carved = Expression.compile("x^2+z^2<y*4 && noise(x,y,z)>0.2");
+        double[] shapeRegisters = shape.newRegisters();
+        double[] carvedRegisters = carved.newRegisters();
+        int inShape = 0;
+        int inCarved = 0;
+        for (int x = -24; x <= 24; x++) {
+            for (int y = 0; y < 64; y++) {
+                for (int z = -24; z <= 24; z++) {
+                    if (shape.evaluate(x, y, z, shapeRegisters) != 0) {
+                        inShape++;
+                    }
+                    if (carved.evaluate(x, y, z, carvedRegisters) != 0) {
+                        inCarved++;
+                    }
+                }
+            }
+        }
+        assertTrue(inCarved > 0, "the example matches nothing");
+        assertTrue(inCarved < inShape, "noise removed nothing from the shape");
+    }
+
+    @Test
+    void sameExpressionAlwaysGivesTheSameNoise() {
+        double first = eval("noise(x,y,z)+simplex(x,y,z)", 5, 6, 7);
+        double second = eval("noise(x,y,z)+simplex(x,y,z)", 5, 6, 7);
+        assertEquals(first, second, 0);
+    }
+
+    private static double eval(String source) {
+        return eval(source, 0, 0, 0);
+    }
+
+    private static double eval(String source, double x, double y, double z) {
+        Expression expression = Expression.compile(source);
+        return expression.evaluate(x, y, z, expression.newRegisters());
+    }
+}
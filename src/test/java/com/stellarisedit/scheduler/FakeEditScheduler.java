@@ -0,0 +1,76 @@
+package com.stellarisedit.scheduler;
+
+import org.bukkit.World;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Scheduler for tests.  Tasks are queued and run in submission order on the
+ * calling thread by {@link #runAll()}.  An inline scheduler instead runs every
+ * task immediately, as the Bukkit scheduler does on the main thread.  Every
+ * chunk counts as owned by the calling thread.
+ */
+public class FakeEditScheduler implements EditScheduler {
+    private final boolean inline;
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private int chunkTasks;
+    private int globalTasks;
+
+    public FakeEditScheduler(boolean inline) {
+        this.inline = inline;
+    }
+
+    @Override
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        chunkTasks++;
+        submit(task);
+    }
+
+    @Override
+    public void runGlobal(Runnable task) {
+        globalTasks++;
+        submit(task);
+    }
+
+    @Override
+    public void runGlobalLater(Runnable task, long delayTicks) {
+        queue.add(task);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        queue.add(task);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return true;
+    }
+
+    /**
+     * Runs queued tasks, including any they submit, until the queue is empty.
+     */
+    public void runAll() {
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    public int getChunkTasks() {
+        return chunkTasks;
+    }
+
+    public int getGlobalTasks() {
+        return globalTasks;
+    }
+
+    private void submit(Runnable task) {
+        if (inline) {
+            task.run();
+        } else {
+            queue.add(task);
+        }
+    }
+}